@@ -34,7 +34,9 @@
         <local-cache name="globalActions"/>
       </cache-container>
       <cache-container name="hawkular-services" default-cache="backfill" statistics-enabled="true">
-        <local-cache name="backfill"/>
+        <local-cache name="backfill">
+          <expiration interval="5000"/>
+        </local-cache>
       </cache-container>
       <cache-container name="hawkular-metrics" default-cache="locks" statistics-enabled="true">
         <local-cache name="locks"/>
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.bus;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.bus.common.AbstractMessage;
+import org.hawkular.listener.cache.BackfillCache;
+import org.hawkular.listener.cache.BackfillCacheManager;
+import org.hawkular.listener.cache.FeedPing;
+import org.hawkular.metrics.component.publish.AvailDataMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Messages per second of the avail listener from the JSON text of an AvailDataMessage to the pings handed to the
+ * backfill cache: the full decoding into AvailData/SingleAvail objects, against the streaming ping-only decoding.
+ * Each message has one feed ping among the avails of other metrics. Run with <code>-prof gc</code> for the
+ * allocation per message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class AvailDecodingBenchmark {
+
+    @Param({ "1", "10", "100" })
+    public int availsPerMessage;
+
+    private final FeedAvailabilityDataListener listener = new FeedAvailabilityDataListener();
+    private String json;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        listener.backfillCacheManager = new PingSink(blackhole);
+        List<String> avails = new ArrayList<>();
+        avails.add(avail(BackfillCacheManager.FEED_PREFIX + "0123456789abcdef0123456789abcdef0123"));
+        for (int i = 1; i < availsPerMessage; ++i) {
+            avails.add(avail("MI~R~[0123456789abcdef0123456789abcdef0123/Local~~]~AT~Server Availability-" + i));
+        }
+        json = "{\"availData\":{\"data\":[" + String.join(",", avails) + "]}}";
+    }
+
+    private static String avail(String id) {
+        return "{\"tenantId\":\"hawkular\",\"id\":\"" + id + "\",\"timestamp\":1490000000000,\"avail\":\"UP\"}";
+    }
+
+    @Benchmark
+    public void full() {
+        listener.onBasicMessage(AbstractMessage.fromJSON(json, AvailDataMessage.class));
+    }
+
+    @Benchmark
+    public void streaming(Blackhole blackhole) throws Exception {
+        blackhole.consume(AvailPingDecoder.decode(json));
+    }
+
+    /**
+     * Stand-in for the backfill cache, consumes the pings.
+     */
+    private static class PingSink implements BackfillCache {
+        private final Blackhole blackhole;
+
+        PingSink(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public boolean isStandalone() {
+            return true;
+        }
+
+        @Override
+        public boolean isResponsible(String id) {
+            return true;
+        }
+
+        @Override
+        public void processTopologyChange() {
+        }
+
+        @Override
+        public void updateFeedAvailability(String tenantId, String feedAvailabilityMetricId) {
+            blackhole.consume(tenantId);
+            blackhole.consume(feedAvailabilityMetricId);
+        }
+
+        @Override
+        public void updateFeedAvailability(Collection<FeedPing> pings) {
+            blackhole.consume(pings);
+        }
+
+        @Override
+        public boolean isPingTapActive() {
+            return false;
+        }
+
+        @Override
+        public void forceBackfill(String feedId) {
+        }
+
+        @Override
+        public void feedConnectionClosed(String feedId) {
+        }
+    }
+}
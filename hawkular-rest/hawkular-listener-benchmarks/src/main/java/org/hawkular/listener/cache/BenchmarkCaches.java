@@ -0,0 +1,65 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+import org.infinispan.configuration.cache.CacheMode;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+import org.infinispan.manager.EmbeddedCacheManager;
+
+/**
+ * Cache managers for the benchmarks, a replicated cache forms an in-JVM cluster over a shared loopback transport.
+ */
+final class BenchmarkCaches {
+    static final String CACHE_NAME = "backfill";
+
+    private static final String JGROUPS_CONFIG = "benchmark-jgroups.xml";
+
+    private BenchmarkCaches() {
+    }
+
+    /**
+     * @param cacheMode LOCAL, or a clustered mode for a cluster of the given number of members
+     * @param members the number of cache managers to start, the first is the one to benchmark
+     * @return the started cache managers, with the backfill cache started on every member
+     */
+    static EmbeddedCacheManager[] start(CacheMode cacheMode, int members) {
+        EmbeddedCacheManager[] managers = new EmbeddedCacheManager[cacheMode.isClustered() ? members : 1];
+        for (int i = 0; i < managers.length; ++i) {
+            GlobalConfigurationBuilder global = cacheMode.isClustered()
+                    ? GlobalConfigurationBuilder.defaultClusteredBuilder()
+                    : new GlobalConfigurationBuilder();
+            if (cacheMode.isClustered()) {
+                global.transport().clusterName("backfill-benchmark").nodeName("member-" + i)
+                        .addProperty("configurationFile", JGROUPS_CONFIG);
+            }
+            global.globalJmxStatistics().allowDuplicateDomains(true);
+            ConfigurationBuilder cache = new ConfigurationBuilder();
+            cache.clustering().cacheMode(cacheMode);
+            managers[i] = new DefaultCacheManager(global.build(), cache.build());
+            managers[i].getCache(CACHE_NAME);
+        }
+        return managers;
+    }
+
+    static void stop(EmbeddedCacheManager[] managers) {
+        for (int i = managers.length - 1; i >= 0; --i) {
+            managers[i].stop();
+        }
+    }
+}
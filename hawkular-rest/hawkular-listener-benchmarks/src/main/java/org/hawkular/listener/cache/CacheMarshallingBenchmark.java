@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.listener.cache.BackfillCacheManager.CacheKey;
+import org.hawkular.listener.cache.BackfillCacheManager.CacheValue;
+import org.infinispan.commons.marshall.StreamingMarshaller;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.infinispan.factories.KnownComponentNames;
+import org.infinispan.lifecycle.ModuleLifecycle;
+import org.infinispan.manager.DefaultCacheManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Marshalling of a backfill cache entry by the cache manager's marshaller, as replication puts it on the wire:
+ * with the externalizers registered by id, or with the {@link org.infinispan.commons.marshall.SerializeWith}
+ * fallback of a container that does not see them. The setup prints the bytes per entry and for 50k feeds.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CacheMarshallingBenchmark {
+    private static final int FEEDS = 50000;
+
+    @Param({ "registered", "serializeWith" })
+    public String externalizers;
+
+    private DefaultCacheManager cacheManager;
+    private StreamingMarshaller marshaller;
+    private CacheKey key;
+    private CacheValue value;
+    private byte[] keyBytes;
+    private byte[] valueBytes;
+
+    @Setup
+    public void setup() throws Exception {
+        ClassLoader classLoader = getClass().getClassLoader();
+        if ("serializeWith".equals(externalizers)) {
+            classLoader = new ClassLoader(classLoader) {
+                @Override
+                public Enumeration<URL> getResources(String name) throws IOException {
+                    return name.endsWith(ModuleLifecycle.class.getName()) ? Collections.emptyEnumeration()
+                            : super.getResources(name);
+                }
+            };
+        }
+        GlobalConfigurationBuilder global = new GlobalConfigurationBuilder();
+        global.classLoader(classLoader);
+        global.globalJmxStatistics().allowDuplicateDomains(true);
+        cacheManager = new DefaultCacheManager(global.build(), new ConfigurationBuilder().build());
+        cacheManager.getCache();
+        marshaller = cacheManager.getGlobalComponentRegistry().getComponent(StreamingMarshaller.class,
+                KnownComponentNames.GLOBAL_MARSHALLER);
+
+        key = new CacheKey("hawkular", BackfillCacheManager.FEED_PREFIX + "0123456789abcdef0123456789abcdef0123");
+        value = new CacheValue(System.currentTimeMillis(), 60000L);
+        keyBytes = marshaller.objectToByteBuffer(key);
+        valueBytes = marshaller.objectToByteBuffer(value);
+        int entryBytes = keyBytes.length + valueBytes.length;
+        System.out.printf("%n%s: %d bytes per entry (key %d, value %d), %d KB for %d feeds%n", externalizers,
+                entryBytes, keyBytes.length, valueBytes.length, entryBytes * (long) FEEDS / 1024, FEEDS);
+    }
+
+    @TearDown
+    public void tearDown() {
+        cacheManager.stop();
+    }
+
+    @Benchmark
+    public void marshalEntry(Blackhole blackhole) throws Exception {
+        blackhole.consume(marshaller.objectToByteBuffer(key));
+        blackhole.consume(marshaller.objectToByteBuffer(value));
+    }
+
+    @Benchmark
+    public void unmarshalEntry(Blackhole blackhole) throws Exception {
+        blackhole.consume(marshaller.objectFromByteBuffer(keyBytes));
+        blackhole.consume(marshaller.objectFromByteBuffer(valueBytes));
+    }
+}
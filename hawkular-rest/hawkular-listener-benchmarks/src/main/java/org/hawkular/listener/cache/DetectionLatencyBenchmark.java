@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rx.schedulers.Schedulers;
+
+/**
+ * Detection latency, from a due deadline to its check running, while backfills are blocked on a slow inventory.
+ * The executors are set up as {@link BackfillCacheManager} does for each hawkular-services.backfill.execution mode,
+ * with the default 10 job threads. A stand-in for the inventory read holds each backfill for inventoryLatencyMs,
+ * and twice as many backfills as job threads are kept in flight.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class DetectionLatencyBenchmark {
+    private static final int JOB_THREADS = 10;
+
+    @Param({ "pool", "reactive" })
+    public String execution;
+
+    @Param({ "10", "2000" })
+    public long inventoryLatencyMs;
+
+    private ExecutorService executorService;
+    private Executor checkExecutor;
+    private Executor backfillExecutor;
+    private volatile boolean running;
+
+    @Setup
+    public void setup() {
+        if ("reactive".equals(execution)) {
+            checkExecutor = BackfillCacheManager.schedulerExecutor(Schedulers.computation());
+            backfillExecutor = BackfillCacheManager.schedulerExecutor(Schedulers.io());
+        } else {
+            executorService = Executors.newFixedThreadPool(JOB_THREADS);
+            checkExecutor = executorService;
+            backfillExecutor = executorService;
+        }
+        running = true;
+        for (int i = 0; i < 2 * JOB_THREADS; ++i) {
+            backfillExecutor.execute(this::slowBackfill);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        running = false;
+        if (null != executorService) {
+            executorService.shutdownNow();
+        }
+    }
+
+    // the next backfill is admitted as soon as one completes
+    private void slowBackfill() {
+        try {
+            Thread.sleep(inventoryLatencyMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (running) {
+            backfillExecutor.execute(this::slowBackfill);
+        }
+    }
+
+    @Benchmark
+    public void check() throws InterruptedException {
+        CountDownLatch checked = new CountDownLatch(1);
+        checkExecutor.execute(checked::countDown);
+        checked.await();
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.listener.cache.BackfillCacheManager.CacheKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The ping path of an already known feed, from the decoded tenant and metric id to the recorded ping: the
+ * ownership check and the {@link FeedKeyTable} record, against a new {@link CacheKey} and a boxed ping time per
+ * ping. Run with <code>-prof gc</code>, gc.alloc.rate.norm is the allocation per ping.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FeedPingBenchmark {
+    private static final String TENANT = "hawkular";
+    private static final int FEEDS = 1024;
+
+    private final MemberTable members = MemberTable.of(Arrays.asList("member-1", "member-2"), "member-1");
+    private final FeedKeyTable feedKeys = new FeedKeyTable();
+    private final ConcurrentHashMap<CacheKey, Long> pending = new ConcurrentHashMap<>();
+    private final String[] metricIds = new String[FEEDS];
+    private int next;
+    private long pingTime;
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < FEEDS; ++i) {
+            metricIds[i] = BackfillCacheManager.FEED_PREFIX + "feed-" + i;
+            feedKeys.intern(TENANT, metricIds[i]);
+            pending.put(new CacheKey(TENANT, metricIds[i]), 0L);
+        }
+    }
+
+    @Benchmark
+    public CacheKey keyTable() {
+        String metricId = metricIds[next++ & (FEEDS - 1)];
+        return members.isLocalOwner(metricId) ? feedKeys.recordPing(TENANT, metricId, ++pingTime) : null;
+    }
+
+    @Benchmark
+    public Long newKeyPerPing() {
+        String metricId = metricIds[next++ & (FEEDS - 1)];
+        return members.isLocalOwner(metricId) ? pending.merge(new CacheKey(TENANT, metricId), ++pingTime, Math::max)
+                : null;
+    }
+}
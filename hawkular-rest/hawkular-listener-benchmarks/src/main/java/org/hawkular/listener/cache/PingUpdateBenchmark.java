@@ -0,0 +1,123 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.hawkular.listener.cache.BackfillCacheManager.CacheKey;
+import org.hawkular.listener.cache.BackfillCacheManager.CacheValue;
+import org.infinispan.Cache;
+import org.infinispan.configuration.cache.CacheMode;
+import org.infinispan.manager.EmbeddedCacheManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of recording a ping in the backfill cache, per feed: the former read and unconditional put, the
+ * conditional single feed update, and the conditional bulk update of a flush. A replicated cache runs a two member
+ * in-JVM cluster, so a write includes the JGroups round trip but no network latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PingUpdateBenchmark {
+    private static final int FEEDS = 1000;
+    private static final int FLUSH_SIZE = 100;
+    private static final long MAX_QUIET_PERIOD_MS = 60000L;
+
+    @Param({ "LOCAL", "REPL_SYNC" })
+    public CacheMode cacheMode;
+
+    private EmbeddedCacheManager[] managers;
+    private Cache<CacheKey, CacheValue> cache;
+    private InfinispanPingTable table;
+    private CacheKey[] keys;
+    private Set<CacheKey>[] flushes;
+    private int next;
+    private long pingTime;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        managers = BenchmarkCaches.start(cacheMode, 2);
+        cache = managers[0].getCache(BenchmarkCaches.CACHE_NAME);
+        table = new InfinispanPingTable(cache, null);
+        keys = new CacheKey[FEEDS];
+        flushes = new Set[FEEDS / FLUSH_SIZE];
+        for (int i = 0; i < FEEDS; ++i) {
+            keys[i] = new CacheKey("hawkular", BackfillCacheManager.FEED_PREFIX + "feed-" + i);
+            cache.put(keys[i], new CacheValue(0L, MAX_QUIET_PERIOD_MS));
+            if (null == flushes[i / FLUSH_SIZE]) {
+                flushes[i / FLUSH_SIZE] = new HashSet<>();
+            }
+            flushes[i / FLUSH_SIZE].add(keys[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkCaches.stop(managers);
+    }
+
+    // a newer ping moves the entry forward, as the backfill cache does
+    private static CacheValue ping(CacheValue value, long pingTime) {
+        if (null == value) {
+            return new CacheValue(pingTime, 0L);
+        }
+        return pingTime <= value.getLastUpdateTime() ? null : new CacheValue(pingTime, value.getMaxQuietPeriodMs());
+    }
+
+    @Benchmark
+    public CacheValue getThenPut() {
+        CacheKey key = keys[next++ % FEEDS];
+        CacheValue value = ping(cache.get(key), ++pingTime);
+        cache.put(key, value);
+        return value;
+    }
+
+    @Benchmark
+    public CacheValue update() {
+        CacheKey key = keys[next++ % FEEDS];
+        long time = ++pingTime;
+        return table.update(key, v -> ping(v, time));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FLUSH_SIZE)
+    public Map<CacheKey, CacheValue> updateAll() {
+        Set<CacheKey> flush = flushes[next++ % flushes.length];
+        long time = ++pingTime;
+        return table.updateAll(flush, (k, v) -> ping(v, time));
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.bus;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hawkular.listener.cache.BackfillCacheManager;
+import org.hawkular.listener.cache.FeedPing;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * <p>
+ * Streaming decoder of the JSON payload of an AvailDataMessage that extracts only the feed pings, the UP avails of
+ * the feed ping metrics. Nothing else of the message is materialized: unknown fields are skipped with their
+ * children, and the id and avail of each data point are matched in the parser's buffer so a String is only built
+ * for the ids of actual pings.</p>
+ * <p>
+ * The expected payload is <code>{"availData":{"data":[{"tenantId":..,"id":..,"timestamp":..,"avail":..},..]},..}
+ * </code>, with the fields of a data point in any order.</p>
+ */
+final class AvailPingDecoder {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final char[] FEED_PREFIX = BackfillCacheManager.FEED_PREFIX.toCharArray();
+    private static final char[] UP = "UP".toCharArray();
+
+    private AvailPingDecoder() {
+    }
+
+    /**
+     * @param json the JSON payload of an AvailDataMessage
+     * @return the feed pings of the message, in message order, or null if there are none
+     * @throws IOException if the payload is not valid JSON
+     */
+    static List<FeedPing> decode(String json) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            if (JsonToken.START_OBJECT != parser.nextToken()) {
+                return null;
+            }
+            List<FeedPing> pings = null;
+            while (JsonToken.FIELD_NAME == parser.nextToken()) {
+                JsonToken value = parser.nextToken();
+                if ("availData".equals(parser.getCurrentName()) && JsonToken.START_OBJECT == value) {
+                    pings = decodeAvailData(parser, pings);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return pings;
+        }
+    }
+
+    // positioned on the START_OBJECT of availData, returns positioned on its END_OBJECT
+    private static List<FeedPing> decodeAvailData(JsonParser parser, List<FeedPing> pings) throws IOException {
+        while (JsonToken.FIELD_NAME == parser.nextToken()) {
+            JsonToken value = parser.nextToken();
+            if ("data".equals(parser.getCurrentName()) && JsonToken.START_ARRAY == value) {
+                while (JsonToken.START_OBJECT == (value = parser.nextToken())) {
+                    FeedPing ping = decodeSingleAvail(parser);
+                    if (null != ping) {
+                        if (null == pings) {
+                            pings = new ArrayList<>();
+                        }
+                        pings.add(ping);
+                    }
+                }
+                if (JsonToken.END_ARRAY != value) {
+                    // a non-object data point, not something we know how to read
+                    parser.skipChildren();
+                    skipToEndOfArray(parser);
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return pings;
+    }
+
+    // positioned on the START_OBJECT of a data point, returns positioned on its END_OBJECT
+    private static FeedPing decodeSingleAvail(JsonParser parser) throws IOException {
+        String tenantId = null;
+        String metricId = null;
+        boolean up = false;
+        // false as soon as a field rules the data point out, the remaining fields are then skipped
+        boolean ping = true;
+        while (JsonToken.FIELD_NAME == parser.nextToken()) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (!ping) {
+                parser.skipChildren();
+            } else if ("id".equals(field)) {
+                ping = JsonToken.VALUE_STRING == value && startsWith(parser, FEED_PREFIX);
+                if (ping) {
+                    metricId = parser.getText();
+                } else {
+                    // the value may be a mistyped object or array
+                    parser.skipChildren();
+                }
+            } else if ("avail".equals(field)) {
+                up = JsonToken.VALUE_STRING == value && textEquals(parser, UP);
+                ping = up;
+                if (!ping) {
+                    parser.skipChildren();
+                }
+            } else if ("tenantId".equals(field) && JsonToken.VALUE_STRING == value) {
+                tenantId = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return ping && up && null != tenantId && null != metricId ? new FeedPing(tenantId, metricId) : null;
+    }
+
+    private static void skipToEndOfArray(JsonParser parser) throws IOException {
+        JsonToken token;
+        while (null != (token = parser.nextToken()) && JsonToken.END_ARRAY != token) {
+            parser.skipChildren();
+        }
+    }
+
+    private static boolean startsWith(JsonParser parser, char[] prefix) throws IOException {
+        int length = parser.getTextLength();
+        if (length < prefix.length) {
+            return false;
+        }
+        char[] text = parser.getTextCharacters();
+        int offset = parser.getTextOffset();
+        for (int i = 0; i < prefix.length; ++i) {
+            if (text[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean textEquals(JsonParser parser, char[] expected) throws IOException {
+        if (parser.getTextLength() != expected.length) {
+            return false;
+        }
+        char[] text = parser.getTextCharacters();
+        int offset = parser.getTextOffset();
+        for (int i = 0; i < expected.length; ++i) {
+            if (text[offset + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -16,6 +16,7 @@
  */
 package org.hawkular.listener.bus;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.ejb.ActivationConfigProperty;
@@ -23,11 +24,14 @@ import javax.ejb.EJB;
 import javax.ejb.MessageDriven;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
+import javax.jms.Message;
 import javax.jms.MessageListener;
+import javax.jms.TextMessage;
 
 import org.hawkular.bus.common.consumer.BasicMessageListener;
 import org.hawkular.listener.cache.BackfillCache;
 import org.hawkular.listener.cache.BackfillCacheManager;
+import org.hawkular.listener.cache.FeedPing;
 import org.hawkular.metrics.component.publish.AvailDataMessage;
 import org.hawkular.metrics.component.publish.AvailDataMessage.AvailData;
 import org.hawkular.metrics.component.publish.AvailDataMessage.SingleAvail;
@@ -41,6 +45,19 @@ import org.jboss.logging.Logger;
  * </p>
  * This is useful only when deploying into the Hawkular Bus with Hawkular Metrics. The expected message payload should
  * be JSON representation of {@link AvailDataMessage}.
+ * <p>
+ * The following system property can be defined to configure the decoding of the messages:
+ * <pre>
+ * hawkular-services.backfill.avail-decoding
+ *   Either "full", decoding the whole AvailDataMessage, or "streaming", extracting only the feed pings from the
+ *   JSON text with a streaming parser and skipping all other avails without materializing them. Messages that are
+ *   not text messages are always fully decoded.
+ *   Default = full
+ * </pre></p>
+ * <p>
+ * When the backfill cache receives the pings in-VM from Metrics, see {@link BackfillCache#isPingTapActive()}, the
+ * messages are dropped without being decoded. The backfill cache is only asked when
+ * <code>hawkular-services.backfill.ping-source</code> is "in-vm".</p>
  *
  * @author Jay Shaughnessy
  */
@@ -53,9 +70,48 @@ public class FeedAvailabilityDataListener extends BasicMessageListener<AvailData
 
     private static final String UP = "UP";
 
+    private static final String DEFAULT_AVAIL_DECODING = "full";
+    private static final String PROP_AVAIL_DECODING = "hawkular-services.backfill.avail-decoding";
+    private static final boolean STREAMING_DECODING = "streaming"
+            .equalsIgnoreCase(System.getProperty(PROP_AVAIL_DECODING, DEFAULT_AVAIL_DECODING));
+
+    // see BackfillCacheManager, only an in-vm ping source can make the JMS pings redundant
+    private static final String DEFAULT_PING_SOURCE = "jms";
+    private static final String PROP_PING_SOURCE = "hawkular-services.backfill.ping-source";
+    private static final boolean IN_VM_PINGS = "in-vm"
+            .equalsIgnoreCase(System.getProperty(PROP_PING_SOURCE, DEFAULT_PING_SOURCE));
+
     @EJB
     BackfillCache backfillCacheManager;
 
+    @Override
+    public void onMessage(Message message) {
+        // the same pings are already received in-VM, only asked when configured to avoid a call per message
+        if (IN_VM_PINGS && backfillCacheManager.isPingTapActive()) {
+            return;
+        }
+
+        if (!STREAMING_DECODING || !(message instanceof TextMessage)) {
+            super.onMessage(message);
+            return;
+        }
+
+        List<FeedPing> pings;
+        try {
+            pings = AvailPingDecoder.decode(((TextMessage) message).getText());
+        } catch (Exception e) {
+            log.errorf(e, "Failed to decode avail message [%s]", message);
+            return;
+        }
+        if (log.isTraceEnabled()) {
+            log.trace("Message received with [" + (null == pings ? 0 : pings.size()) + "] feed pings.");
+        }
+
+        if (null != pings) {
+            backfillCacheManager.updateFeedAvailability(pings);
+        }
+    }
+
     @Override
     protected void onBasicMessage(AvailDataMessage msg) {
 
@@ -65,13 +121,31 @@ public class FeedAvailabilityDataListener extends BasicMessageListener<AvailData
         }
 
         List<SingleAvail> data = availData.getData();
+        SingleAvail first = null;
+        List<FeedPing> pings = null;
         for (SingleAvail a : data) {
             String metricId = a.getId();
             // ignore non-ping or non-up avail
             if (metricId.startsWith(BackfillCacheManager.FEED_PREFIX) && UP.equals(a.getAvail())) {
-                backfillCacheManager.updateFeedAvailability(a.getTenantId(), metricId);
+                if (null == first) {
+                    first = a;
+                    continue;
+                }
+                if (null == pings) {
+                    pings = new ArrayList<>();
+                    pings.add(new FeedPing(first.getTenantId(), first.getId()));
+                }
+                pings.add(new FeedPing(a.getTenantId(), metricId));
             }
         }
+
+        // A message typically carries a single ping, which is passed as is and allocates nothing for a known feed.
+        // Otherwise one invocation for all of the pings of the message, at the cost of a FeedPing per ping.
+        if (null != pings) {
+            backfillCacheManager.updateFeedAvailability(pings);
+        } else if (null != first) {
+            backfillCacheManager.updateFeedAvailability(first.getTenantId(), first.getId());
+        }
     }
 
 }
@@ -27,6 +27,7 @@ import org.hawkular.bus.common.BasicMessage;
 import org.hawkular.bus.common.consumer.BasicMessageListener;
 import org.hawkular.cmdgw.api.FeedWebSocketClosedEvent;
 import org.hawkular.listener.cache.BackfillCache;
+import org.hawkular.listener.cache.BackfillCacheManager;
 import org.jboss.logging.Logger;
 
 /**
@@ -56,7 +57,10 @@ public class HawkularTopicListener extends BasicMessageListener<BasicMessage> {
             FeedWebSocketClosedEvent fce = (FeedWebSocketClosedEvent) msg;
             log.debugf("Feed WebSocket Closed. feedId=%s reason=%s code=%s", fce.getFeedId(), fce.getReason(),
                     fce.getCode());
-            backfillCacheManager.forceBackfill(fce.getFeedId());
+            // every member gets the event, only the owner of the feed goes on with the backfill work
+            if (backfillCacheManager.isResponsible(BackfillCacheManager.FEED_PREFIX + fce.getFeedId())) {
+                backfillCacheManager.feedConnectionClosed(fce.getFeedId());
+            }
         }
     }
 }
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.hawkular.listener.MIQEventUtils;
+import org.hawkular.listener.cache.BackfillCacheManager.MetricResource;
+import org.jboss.logging.Logger;
+
+/**
+ * <p>
+ * Index of feedId -> the ids of the feed's avail metrics and of its server resources (the resources with a
+ * {@link MIQEventUtils#SERVER_AVAILABILITY_NAME} metric), i.e. exactly what a backfill needs from inventory.</p>
+ * <p>
+ * Entries are loaded ahead of a backfill, on a miss only: {@link #warm(String)} is cheap and is called as feeds
+ * ping, it loads an entry in the background when it is missing or older than the TTL, never otherwise. A backfill
+ * then normally finds an entry and needs no inventory round trip. An entry older than the TTL is never used, the
+ * backfill then reads inventory itself.</p>
+ * <p>
+ * There are no inventory change notifications in the listener. An agent re-syncs its inventory when it
+ * reconnects, so the entry of a feed is invalidated when its connection closes or it is backfilled, and loaded
+ * again once the feed is monitored again. The TTL only bounds the staleness of changes made while connected. A load
+ * in progress when its feed is invalidated does not store its result, it may have read inventory before the
+ * change.</p>
+ * <p>
+ * Loads run on the given executor, which should be small and bounded so that inventory reads never compete with
+ * the detection of dead feeds. A load rejected by the executor is simply retried on a later ping.</p>
+ */
+public class AvailMetricIndex {
+
+    private final Logger log = Logger.getLogger(AvailMetricIndex.class);
+
+    /**
+     * The inventory data of a feed needed for a backfill.
+     */
+    public static final class AvailMetrics {
+        private final List<String> availMetricIds;
+        private final List<String> serverResourceIds;
+        private final long loadTime;
+
+        AvailMetrics(List<String> availMetricIds, List<String> serverResourceIds, long loadTime) {
+            this.availMetricIds = availMetricIds;
+            this.serverResourceIds = serverResourceIds;
+            this.loadTime = loadTime;
+        }
+
+        public List<String> getAvailMetricIds() {
+            return availMetricIds;
+        }
+
+        public List<String> getServerResourceIds() {
+            return serverResourceIds;
+        }
+
+        public long getLoadTime() {
+            return loadTime;
+        }
+    }
+
+    private final ConcurrentHashMap<String, AvailMetrics> index = new ConcurrentHashMap<>();
+    // feedId -> the token of the load in progress, removed by an invalidation so that the load is not stored
+    private final ConcurrentHashMap<String, Object> loading = new ConcurrentHashMap<>();
+
+    private final Function<String, List<MetricResource>> loader;
+    private final Executor executor;
+    private final long ttlMs;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param loader fetches the avail metrics of a feed from inventory, may block
+     * @param executor runs the background loads, small and bounded
+     * @param ttlMs the max age of a used entry
+     */
+    public AvailMetricIndex(Function<String, List<MetricResource>> loader, Executor executor, long ttlMs) {
+        this.loader = loader;
+        this.executor = executor;
+        this.ttlMs = ttlMs;
+    }
+
+    /**
+     * @return the avail metrics of the feed if its entry is fresh, otherwise null and the caller reads inventory
+     */
+    public AvailMetrics lookup(String feedId) {
+        AvailMetrics entry = index.get(feedId);
+        if (null != entry && System.currentTimeMillis() - entry.loadTime <= ttlMs) {
+            hits.incrementAndGet();
+            return entry;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Load the entry of the feed in the background if it is missing or older than the TTL. Does not block.
+     */
+    public void warm(String feedId) {
+        AvailMetrics entry = index.get(feedId);
+        if (null != entry && System.currentTimeMillis() - entry.loadTime <= ttlMs) {
+            return;
+        }
+        Object token = new Object();
+        if (null != loading.putIfAbsent(feedId, token)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    load(feedId, token);
+                } catch (Exception e) {
+                    log.debugf("Failed to load avail metrics of feed %s: %s", feedId, e.getMessage());
+                } finally {
+                    loading.remove(feedId, token);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            loading.remove(feedId, token);
+        }
+    }
+
+    /**
+     * Remove the entry of the feed, and discard the result of its load in progress, if any.
+     */
+    public void invalidate(String feedId) {
+        // under the lock of the entry, the same as the store of a load
+        index.compute(feedId, (k, entry) -> {
+            loading.remove(feedId);
+            return null;
+        });
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return 0L == total ? 0.0 : (double) h / total;
+    }
+
+    /**
+     * @return the age, in ms, of the oldest entry
+     */
+    public long getMaxStalenessMs() {
+        long oldest = Long.MAX_VALUE;
+        for (AvailMetrics entry : index.values()) {
+            oldest = Math.min(oldest, entry.loadTime);
+        }
+        return Long.MAX_VALUE == oldest ? 0L : System.currentTimeMillis() - oldest;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AvailMetricIndex [size=%d, hits=%d, misses=%d, hitRatio=%.2f, maxStalenessMs=%d]",
+                size(), getHits(), getMisses(), getHitRatio(), getMaxStalenessMs());
+    }
+
+    private void load(String feedId, Object token) {
+        long loadTime = System.currentTimeMillis();
+        List<MetricResource> metricResources = loader.apply(feedId);
+        List<String> availMetricIds = new ArrayList<>(metricResources.size());
+        List<String> serverResourceIds = new ArrayList<>();
+        for (MetricResource metricResource : metricResources) {
+            // TODO [lponce] to confirm with agent
+            availMetricIds.add(metricResource.getMetric().getProperties().get("id"));
+            if (metricResource.getMetric().getName().equals(MIQEventUtils.SERVER_AVAILABILITY_NAME)) {
+                serverResourceIds.add(metricResource.getResourceId());
+            }
+        }
+        AvailMetrics entry = new AvailMetrics(Collections.unmodifiableList(availMetricIds),
+                Collections.unmodifiableList(serverResourceIds), loadTime);
+        // not stored if the feed was invalidated meanwhile
+        index.compute(feedId, (k, current) -> token == loading.get(feedId) ? entry : current);
+    }
+}
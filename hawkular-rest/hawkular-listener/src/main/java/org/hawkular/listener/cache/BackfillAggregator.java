@@ -0,0 +1,135 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * Collects the feeds due for backfill during a short window and hands them over as one batch. The window opens with
+ * the first feed added, so a lone dead feed is delayed by at most the window, and a batch is handed over early when
+ * it reaches its max size. A feed added more than once in a window is backfilled once.</p>
+ * <p>
+ * When many feeds go dark together, e.g. on a network partition or a broker restart, they are then backfilled with
+ * one inventory pass and one merged Metrics write instead of hundreds of independent ones.</p>
+ * <p>
+ * On {@link #close()} the pending feeds are drained at once, on the calling thread, they would otherwise be lost
+ * with the timer. Feeds added after that are handed over one by one.</p>
+ *
+ * @param <K> the feed key type
+ */
+public class BackfillAggregator<K> {
+
+    private final ScheduledExecutorService timer;
+    private final Executor executor;
+    private final long windowMs;
+    private final int maxBatchSize;
+    private final Consumer<List<K>> drain;
+
+    private Set<K> pending = new LinkedHashSet<>();
+    private boolean closed = false;
+
+    /**
+     * @param timer schedules the end of the window
+     * @param executor runs the drain, it may block
+     * @param windowMs how long to collect after the first feed is added
+     * @param maxBatchSize a batch this size is handed over without waiting for the end of the window
+     * @param drain backfills a batch
+     */
+    public BackfillAggregator(ScheduledExecutorService timer, Executor executor, long windowMs, int maxBatchSize,
+            Consumer<List<K>> drain) {
+        this.timer = timer;
+        this.executor = executor;
+        this.windowMs = windowMs;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.drain = drain;
+    }
+
+    /**
+     * @return false if the feed is already pending
+     */
+    public boolean add(K key) {
+        boolean windowOpened;
+        List<K> full = null;
+        synchronized (this) {
+            windowOpened = pending.isEmpty();
+            if (!pending.add(key)) {
+                return false;
+            }
+            if (closed || pending.size() >= maxBatchSize) {
+                full = take();
+            }
+        }
+        if (null != full) {
+            submit(full);
+        } else if (windowOpened) {
+            timer.schedule(this::flush, windowMs, TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
+
+    /**
+     * Hand over whatever is pending now.
+     */
+    public void flush() {
+        List<K> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = take();
+        }
+        submit(batch);
+    }
+
+    /**
+     * Drain whatever is pending now, on the calling thread, and hand over the feeds added afterwards without
+     * waiting. Called on shutdown, when the end of the window would no longer be scheduled.
+     */
+    public void close() {
+        List<K> batch;
+        synchronized (this) {
+            closed = true;
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = take();
+        }
+        drain.accept(batch);
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    private List<K> take() {
+        List<K> batch = new ArrayList<>(pending);
+        pending = new LinkedHashSet<>();
+        return batch;
+    }
+
+    private void submit(List<K> batch) {
+        executor.execute(() -> drain.accept(batch));
+    }
+}
@@ -16,6 +16,8 @@
  */
 package org.hawkular.listener.cache;
 
+import java.util.Collection;
+
 /**
  * Interface for backfill cache access and management.
  *
@@ -32,6 +34,27 @@ public interface BackfillCache extends ClusterCache {
      */
     void updateFeedAvailability(String tenantId, String feedAvailabilityMetricId);
 
+    /**
+     * Records that we have received UP availability for each of the given feed pings, typically all of the pings
+     * of one message. Equivalent to calling {@link #updateFeedAvailability(String, String)} for each ping, but with
+     * a single invocation and, when pings are not conflated, a single cache read followed by a conditional write
+     * per feed, so concurrent messages never move the last ping time of a feed backwards. Pings of feeds the
+     * current server is not processing are ignored.
+     * <p>
+     * Unlike the single ping update, which allocates nothing for an already known feed, this needs a FeedPing per
+     * ping and the collection. It pays off for messages carrying several pings, prefer the single ping update
+     * for a single ping.</p>
+     *
+     * @param pings The feed pings
+     */
+    void updateFeedAvailability(Collection<FeedPing> pings);
+
+    /**
+     * @return true if feed pings are currently received in-VM from Metrics, in which case the pings received from
+     * JMS are redundant and should be ignored.
+     */
+    boolean isPingTapActive();
+
     /**
      * Request an immediate backfill for the given feed [on all of its registered tenants]. Typically
      * called when we know a feed is down and don't want to wait for the ping detection to timeout.
@@ -41,4 +64,13 @@ public interface BackfillCache extends ClusterCache {
      */
     void forceBackfill(String feedId);
 
+    /**
+     * Report that the connection of the given feed was closed. The feed is backfilled, with the other feeds closed
+     * at about the same time, unless it reconnects and pings within the reconnect window. Ignored, before any other
+     * work, if the current server is not processing the relevant feed.
+     *
+     * @param feedId The feed whose connection was closed
+     */
+    void feedConnectionClosed(String feedId);
+
 }
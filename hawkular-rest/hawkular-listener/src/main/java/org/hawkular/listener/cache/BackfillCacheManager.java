@@ -16,15 +16,28 @@
  */
 package org.hawkular.listener.cache;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -43,6 +56,7 @@ import org.hawkular.inventory.api.InventoryService;
 import org.hawkular.inventory.api.ResourceFilter;
 import org.hawkular.inventory.api.model.ResultSet;
 import org.hawkular.listener.MIQEventUtils;
+import org.hawkular.listener.cache.AvailMetricIndex.AvailMetrics;
 import org.hawkular.metrics.core.service.MetricsService;
 import org.hawkular.metrics.model.AvailabilityType;
 import org.hawkular.metrics.model.DataPoint;
@@ -50,15 +64,23 @@ import org.hawkular.metrics.model.Metric;
 import org.hawkular.metrics.model.MetricId;
 import org.hawkular.metrics.model.MetricType;
 import org.infinispan.Cache;
+import org.infinispan.commons.marshall.AdvancedExternalizer;
+import org.infinispan.commons.marshall.SerializeWith;
+import org.infinispan.context.Flag;
 import org.infinispan.manager.EmbeddedCacheManager;
 import org.infinispan.notifications.Listener;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryExpired;
+import org.infinispan.notifications.cachelistener.event.CacheEntryExpiredEvent;
 import org.infinispan.notifications.cachemanagerlistener.annotation.ViewChanged;
 import org.infinispan.notifications.cachemanagerlistener.event.ViewChangedEvent;
 import org.infinispan.remoting.transport.Address;
 import org.jboss.logging.Logger;
 
 import rx.Observable;
+import rx.Scheduler;
 import rx.Subscriber;
+import rx.Subscription;
+import rx.schedulers.Schedulers;
 
 /**
  * <p>
@@ -70,17 +92,114 @@ import rx.Subscriber;
  * is assumed to be its ping period.  The ping period is multiplied by a provided factor to determine the max
  * quiet time between pings before a backfill is performed.</p>
  * <p>
+ * Optionally, with <code>feed</code> liveness, the pings of all of the tenants of a feed are tracked by a single
+ * liveness entry, keyed by the feed ping metric id and the {@link #FEED_LIVENESS_TENANT} marker. The tenants the
+ * feed pings for are the targets of its backfill. When distributed they are replicated with the entry, so that a
+ * member taking over the feed backfills all of them. This divides cache entries, ping writes and deadlines by the
+ * number of tenants per feed.</p>
+ * <p>
+ * Alternatively, with the <code>phi</code> detector, the max quiet time is re-estimated on every ping by a
+ * {@link PhiAccrualDetector} from a sliding window of the feed's ping intervals. The first-two-pings period is only
+ * used until the window has enough samples.</p>
+ * <p>
+ * Deadlines (lastUpdateTime + maxQuietPeriodMs) are held in a single-threaded {@link TimingWheel}. Each ping just
+ * moves the feed's deadline, nothing is executed for a healthy feed. When a deadline passes the feed is checked
+ * and, if still quiet, backfilled on the backfill thread pool.</p>
+ * <p>
+ * Alternatively, in <code>expiration</code> detection mode, each ping refreshes a per-entry max-idle equal to the
+ * feed's max quiet time and dead feeds are detected by a {@link CacheEntryExpired} listener on the owning member.
+ * This needs no timer thread and no periodic reads, and it also removes the entries of feeds that never return.
+ * Detection latency is then bounded by the expiration interval configured on the cache.</p>
+ * <p>
  * The following system properties can be defined to configure the backfill mechanism:
  * <pre>
- * hawkular-services.backfill.job-period-secs
- *   The frequency of backfill checking. A dead feed should be detected no longer than this period past its max
- *   quiet time (based on the ping-period-factor).
- *   Default = 30s
+ * hawkular-services.backfill.detection-mode
+ *   How dead feeds are detected. Either "timer", using the backfill timing wheel, or "expiration", using
+ *   max-idle expiration of the backfill cache entries.
+ *   Default = timer
+ *
+ * hawkular-services.backfill.tick-ms
+ *   The resolution of the backfill timing wheel (timer mode only). A dead feed should be detected no longer than
+ *   this period past its max quiet time.
+ *   Default = 1000ms, or hawkular-services.backfill.job-period-secs, deprecated, if only that one is set
+ *
+ * hawkular-services.backfill.execution
+ *   How backfills are executed. Either "pool", on a fixed pool of job-threads threads, or "reactive", with the feed
+ *   checks on the Rx computation scheduler and the backfills on the elastic Rx io scheduler, so that backfills
+ *   blocked on a slow inventory or alerts service never delay the detection of other dead feeds.
+ *   Default = pool
  *
  * hawkular-services.backfill.job-threads
- *   The number of threads devoted to backfill checking jobs.  For large inventories this may need to be increased.
+ *   The number of threads devoted to performing backfills (pool execution only).  For large inventories this may
+ *   need to be increased.
+ *   Default = 10
+ *
+ * hawkular-services.backfill.aggregation-window-ms
+ *   Feeds found dead within this window are backfilled together, with one inventory pass per distinct feed and a
+ *   single merged write to Metrics. A lone dead feed is backfilled at most this much later. Set to 0 to backfill
+ *   each feed on its own.
+ *   Default = 500ms
+ *
+ * hawkular-services.backfill.aggregation-max-feeds
+ *   The max number of feeds backfilled together, a full batch does not wait for the end of the window.
+ *   Default = 500
+ *
+ * hawkular-services.backfill.write-batch-size
+ *   The max number of avail metrics per Metrics write of a backfill.
+ *   Default = 500
+ *
+ * hawkular-services.backfill.avail-index-ttl-secs
+ *   When > 0 the avail metrics of monitored feeds are read from inventory ahead of time, on a dedicated pair of
+ *   threads, and kept in an index so that a backfill normally needs no inventory access. An entry is loaded when
+ *   missing, dropped when the feed's connection closes or it is backfilled, and never used when older than this.
+ *   By default inventory is always read on backfill.
+ *   Default = 0 (disabled)
+ *
+ * hawkular-services.backfill.inventory-page-concurrency
+ *   The max number of inventory pages fetched concurrently when reading the resources of a feed.
+ *   Default = 4
+ *
+ * hawkular-services.backfill.write-concurrency
+ *   The max number of backfill writes to Metrics in progress at any time, across all backfills.
+ *   Default = 4
+ *
+ * hawkular-services.backfill.write-rate
+ *   The max number of backfill avail metrics written to Metrics per second. Set to 0 for no limit.
+ *   Default = 5000
+ *
+ * hawkular-services.backfill.storm-threshold
+ *   If more than this share of the monitored feeds is found dead within the storm-window-ms, the cause is assumed
+ *   to be on the server side. Backfills are then held for storm-grace-ms, re-checked, and the feeds still dead are
+ *   released at storm-release-per-sec. Set to 0 to disable storm detection.
+ *   Default = 0.2
+ *
+ * hawkular-services.backfill.storm-min-feeds
+ *   A storm needs at least this many dead feeds within the window.
  *   Default = 10
  *
+ * hawkular-services.backfill.storm-window-ms
+ *   The min window, it is at least the largest max quiet time of the monitored feeds: after a server side stall
+ *   the feeds are found dead over up to their max quiet time.
+ *   Default = 10000ms
+ *
+ * hawkular-services.backfill.storm-grace-ms
+ *   Default = 30000ms
+ *
+ * hawkular-services.backfill.storm-release-per-sec
+ *   Default = 20
+ *
+ * hawkular-services.backfill.reconnect-window-ms
+ *   A feed whose connection closes is backfilled only if it does not ping again within this window plus its ping
+ *   period (its max quiet time divided by the ping-period-factor), i.e. the time for the agent to reconnect and to
+ *   ping at its usual period. The feeds still silent are backfilled in batches, DOWN as of their close. Set to 0
+ *   to backfill a feed as soon as its connection closes.
+ *   Default = 30000ms
+ *
+ * hawkular-services.backfill.forced-backfill-suppression-secs
+ *   A forced backfill, e.g. on a closed feed connection, is ignored if the feed was backfilled less than this long
+ *   ago and has not pinged since. Set to 0 to never ignore forced backfills.
+ *   Default = 300s
+ *
  * hawkular-services.backfill.ping-period-factor
  *   The multiplier applied to the ping period to determine the max quiet time before performing backfill. For
  *   example, if set to 2.5 and for a feed pinging every 60s, a backfill would be performed if no ping is received
@@ -92,6 +211,56 @@ import rx.Subscriber;
  *   establishing the ping period for a feed.  In other words, two pings must be received in less than this established
  *   min before a backfill job will be established for the feed.
  *   Default = 125s
+ *
+ * hawkular-services.backfill.ping-flush-ms
+ *   Pings are conflated in memory, keeping only the latest ping per feed, and written to the backfill cache in one
+ *   batch at this interval. Capped at 5000ms so it stays well below any realistic max quiet time. Set to 0 to
+ *   write every ping directly.
+ *   Default = 1000ms
+ *
+ * hawkular-services.backfill.detector
+ *   How the max quiet time of a feed is determined. Either "period", the ping period established by the first two
+ *   pings times the ping-period-factor, or "phi", a phi-accrual detector over the recent ping intervals.
+ *   Default = period
+ *
+ * hawkular-services.backfill.phi-threshold
+ *   The phi value above which a feed is considered dead (phi detector only). Higher is slower but safer.
+ *   Default = 8
+ *
+ * hawkular-services.backfill.phi-window-size
+ *   The number of ping intervals sampled per feed (phi detector only).
+ *   Default = 32
+ *
+ * hawkular-services.backfill.phi-min-std-dev-ms
+ *   The minimum standard deviation assumed for the ping intervals (phi detector only).
+ *   Default = 1000ms
+ *
+ * hawkular-services.backfill.phi-acceptable-pause-ms
+ *   Added to the estimated max quiet time to ride out GC pauses and messaging delays (phi detector only).
+ *   Default = 5000ms
+ *
+ * hawkular-services.backfill.liveness
+ *   What a liveness entry tracks. Either "tenant", one entry per feed and tenant, or "feed", one entry per feed
+ *   whatever its number of tenants.
+ *   Default = tenant
+ *
+ * hawkular-services.backfill.feed-ping-coalesce-ms
+ *   With feed liveness, pings of a feed (for its different tenants) less than this apart count as a single ping.
+ *   Default = 2000ms
+ *
+ * hawkular-services.backfill.standalone-store
+ *   Where the ping records are kept when standalone in timer mode. Either "infinispan", the backfill cache, or
+ *   "offheap", a table of primitive records outside of the Java heap (16 bytes per feed plus its key). The off-heap
+ *   table is not persisted, after a restart ping periods are established again.
+ *   Default = infinispan
+ *
+ * hawkular-services.backfill.ping-source
+ *   Where feed pings are received from. Either "jms", the HawkularAvailData topic, or "in-vm", a subscription to
+ *   the availability writes of the Metrics deployed in the same server, skipping the serialization and the broker.
+ *   Only used when standalone, a clustered member only sees the writes it handles itself. Until Metrics is
+ *   available, or if the subscription fails, pings are received from JMS. Pings are only recorded on the Metrics
+ *   insert thread, the cache writes run on the ping flush timer or, without conflation, on a dedicated thread.
+ *   Default = jms
  * </pre></p>
  * <p>
  * It needs the following cache defined in the Wildfly configuration files.
@@ -99,7 +268,9 @@ import rx.Subscriber;
  * {@code
  * standalone.xml:
  *       <cache-container name="hawkular-services" default-cache="backfill" statistics-enabled="true">
- *          <local-cache name="backfill"/>
+ *          <local-cache name="backfill">
+ *              <expiration interval="5000"/>
+ *          </local-cache>
  *       </cache-container>
  *
  * standalone-ha.xml:
@@ -107,6 +278,7 @@ import rx.Subscriber;
  *          <transport lock-timeout="60000"/>
  *          <replicated-cache name="backfill" mode="SYNC">
  *              <transaction mode="BATCH"/>
+ *              <expiration interval="5000"/>
  *          </replicated-cache>
  *       </cache-container>
  * }
@@ -124,24 +296,123 @@ import rx.Subscriber;
 @TransactionAttribute(value = TransactionAttributeType.NOT_SUPPORTED)
 public class BackfillCacheManager implements BackfillCache {
 
-    private static final String DEFAULT_JOB_PERIOD_SECS = "15";
+    private static final String DEFAULT_DETECTION_MODE = "timer";
+    private static final String DEFAULT_TICK_MS = "1000";
     private static final String DEFAULT_JOB_THREADS = "10";
+    private static final String DEFAULT_EXECUTION = "pool";
     private static final String DEFAULT_PING_PERIOD_FACTOR = "2.5";
     private static final String DEFAULT_PING_PERIOD_MIN_SECS = "125";
+    private static final String DEFAULT_PING_FLUSH_MS = "1000";
+    private static final String DEFAULT_STANDALONE_STORE = "infinispan";
+    private static final String DEFAULT_PING_SOURCE = "jms";
+    private static final String DEFAULT_DETECTOR = "period";
+    private static final String DEFAULT_LIVENESS = "tenant";
+    private static final String DEFAULT_FEED_PING_COALESCE_MS = "2000";
+    private static final String DEFAULT_AGGREGATION_WINDOW_MS = "500";
+    private static final String DEFAULT_AGGREGATION_MAX_FEEDS = "500";
+    private static final String DEFAULT_WRITE_BATCH_SIZE = "500";
+    private static final String DEFAULT_AVAIL_INDEX_TTL_SECS = "0";
+    private static final String DEFAULT_INVENTORY_PAGE_CONCURRENCY = "4";
+    private static final String DEFAULT_WRITE_CONCURRENCY = "4";
+    private static final String DEFAULT_WRITE_RATE = "5000";
+    private static final String DEFAULT_STORM_THRESHOLD = "0.2";
+    private static final String DEFAULT_FORCED_BACKFILL_SUPPRESSION_SECS = "300";
+    private static final String DEFAULT_RECONNECT_WINDOW_MS = "30000";
+    private static final String DEFAULT_STORM_MIN_FEEDS = "10";
+    private static final String DEFAULT_STORM_WINDOW_MS = "10000";
+    private static final String DEFAULT_STORM_GRACE_MS = "30000";
+    private static final String DEFAULT_STORM_RELEASE_PER_SEC = "20";
+    private static final String DEFAULT_PHI_THRESHOLD = "8";
+    private static final String DEFAULT_PHI_WINDOW_SIZE = "32";
+    private static final String DEFAULT_PHI_MIN_STD_DEV_MS = "1000";
+    private static final String DEFAULT_PHI_ACCEPTABLE_PAUSE_MS = "5000";
     private static final String DEFAULT_TENANT = "hawkular";
 
+    private static final String PROP_DETECTION_MODE = "hawkular-services.backfill.detection-mode";
+    private static final String PROP_TICK_MS = "hawkular-services.backfill.tick-ms";
+    // replaced by tick-ms, still honored when tick-ms is not set
     private static final String PROP_JOB_PERIOD_SECS = "hawkular-services.backfill.job-period-secs";
     private static final String PROP_JOB_THREADS = "hawkular-services.backfill.job-threads";
+    private static final String PROP_EXECUTION = "hawkular-services.backfill.execution";
     private static final String PROP_PING_PERIOD_FACTOR = "hawkular-services.backfill.ping-period-factor";
     private static final String PROP_PING_PERIOD_MIN_SECS = "hawkular-services.backfill.ping-period-min-secs";
-
-    private static final int JOB_PERIOD_SECS;
+    private static final String PROP_PING_FLUSH_MS = "hawkular-services.backfill.ping-flush-ms";
+    private static final String PROP_STANDALONE_STORE = "hawkular-services.backfill.standalone-store";
+    private static final String PROP_PING_SOURCE = "hawkular-services.backfill.ping-source";
+    private static final String PROP_DETECTOR = "hawkular-services.backfill.detector";
+    private static final String PROP_LIVENESS = "hawkular-services.backfill.liveness";
+    private static final String PROP_FEED_PING_COALESCE_MS = "hawkular-services.backfill.feed-ping-coalesce-ms";
+    private static final String PROP_AGGREGATION_WINDOW_MS = "hawkular-services.backfill.aggregation-window-ms";
+    private static final String PROP_AGGREGATION_MAX_FEEDS = "hawkular-services.backfill.aggregation-max-feeds";
+    private static final String PROP_WRITE_BATCH_SIZE = "hawkular-services.backfill.write-batch-size";
+    private static final String PROP_AVAIL_INDEX_TTL_SECS = "hawkular-services.backfill.avail-index-ttl-secs";
+    private static final String PROP_INVENTORY_PAGE_CONCURRENCY =
+            "hawkular-services.backfill.inventory-page-concurrency";
+    private static final String PROP_WRITE_CONCURRENCY = "hawkular-services.backfill.write-concurrency";
+    private static final String PROP_WRITE_RATE = "hawkular-services.backfill.write-rate";
+    private static final String PROP_FORCED_BACKFILL_SUPPRESSION_SECS =
+            "hawkular-services.backfill.forced-backfill-suppression-secs";
+    private static final String PROP_RECONNECT_WINDOW_MS = "hawkular-services.backfill.reconnect-window-ms";
+    private static final String PROP_STORM_THRESHOLD = "hawkular-services.backfill.storm-threshold";
+    private static final String PROP_STORM_MIN_FEEDS = "hawkular-services.backfill.storm-min-feeds";
+    private static final String PROP_STORM_WINDOW_MS = "hawkular-services.backfill.storm-window-ms";
+    private static final String PROP_STORM_GRACE_MS = "hawkular-services.backfill.storm-grace-ms";
+    private static final String PROP_STORM_RELEASE_PER_SEC = "hawkular-services.backfill.storm-release-per-sec";
+    private static final String PROP_PHI_THRESHOLD = "hawkular-services.backfill.phi-threshold";
+    private static final String PROP_PHI_WINDOW_SIZE = "hawkular-services.backfill.phi-window-size";
+    private static final String PROP_PHI_MIN_STD_DEV_MS = "hawkular-services.backfill.phi-min-std-dev-ms";
+    private static final String PROP_PHI_ACCEPTABLE_PAUSE_MS = "hawkular-services.backfill.phi-acceptable-pause-ms";
+
+    private static final long MAX_PING_FLUSH_MS = 5000L;
+
+    private static final boolean EXPIRATION_MODE;
+    private static final long TICK_MS;
     private static final int JOB_THREADS;
     private static final int PING_PERIOD_MIN_SECS;
     private static final double PING_PERIOD_FACTOR;
+    private static final long PING_FLUSH_MS;
+    private static final boolean OFFHEAP_STANDALONE_STORE;
+    private static final boolean IN_VM_PINGS;
+    private static final boolean PHI_DETECTOR;
+    private static final boolean REACTIVE_EXECUTION;
+    private static final boolean FEED_LIVENESS;
+    private static final long MIN_PING_INTERVAL_MS;
+    private static final double PHI_THRESHOLD;
+    private static final long AGGREGATION_WINDOW_MS;
+    private static final int AGGREGATION_MAX_FEEDS;
+    private static final int WRITE_BATCH_SIZE;
+    private static final double STORM_THRESHOLD;
+    private static final long AVAIL_INDEX_TTL_MS;
+    private static final int INVENTORY_PAGE_CONCURRENCY;
+    private static final long RECONNECT_WINDOW_MS;
+
+    private static final int INVENTORY_PAGE_SIZE = 100;
+
+    private static final int INDEX_LOAD_THREADS = 2;
+    private static final int INDEX_LOAD_QUEUE_SIZE = 1000;
+
+    private static final long PING_TAP_RETRY_SECS = 10L;
+
+    /**
+     * A backfill still in flight after this long, e.g. on a hung Metrics write, no longer blocks a new backfill of
+     * the feed.
+     */
+    private static final long MAX_BACKFILL_IN_FLIGHT_MS = TimeUnit.MINUTES.toMillis(10);
+    private static final int PING_TAP_QUEUE_SIZE = 10000;
 
     public static final String FEED_PREFIX = "hawkular-feed-availability-";
 
+    /**
+     * The tenantId of the liveness entries of feeds, with feed liveness.
+     */
+    public static final String FEED_LIVENESS_TENANT = "*";
+
+    /**
+     * Externalizer ids of the backfill cache entries, outside of the ranges reserved by Infinispan and WildFly.
+     */
+    public static final int CACHE_KEY_EXTERNALIZER_ID = 3400;
+    public static final int CACHE_VALUE_EXTERNALIZER_ID = 3401;
+
     private static final String MONITORING_TYPE_KEY = "hawkular-services.monitoring-type";
     private static final String MONITORING_TYPE_VALUE_REMOTE = "remote";
 
@@ -149,16 +420,21 @@ public class BackfillCacheManager implements BackfillCache {
     private static final String METRICS_SERVICE = "java:global/Hawkular/Metrics";
 
     static {
-        int jobPeriodSecs;
+        long tickMs;
         int jobThreads;
         int pingPeriodMinSecs;
         double pingPeriodFactor;
         try {
-            jobPeriodSecs = Integer
-                    .valueOf(System.getProperty(PROP_JOB_PERIOD_SECS, DEFAULT_JOB_PERIOD_SECS))
-                    .intValue();
+            String jobPeriodSecs = System.getProperty(PROP_JOB_PERIOD_SECS);
+            if (null == System.getProperty(PROP_TICK_MS) && null != jobPeriodSecs) {
+                tickMs = Long.valueOf(jobPeriodSecs).longValue() * 1000L;
+            } else {
+                tickMs = Long
+                        .valueOf(System.getProperty(PROP_TICK_MS, DEFAULT_TICK_MS))
+                        .longValue();
+            }
         } catch (Exception e) {
-            jobPeriodSecs = 30;
+            tickMs = 1000L;
         }
         try {
             jobThreads = Integer
@@ -181,10 +457,59 @@ public class BackfillCacheManager implements BackfillCache {
         } catch (Exception e) {
             pingPeriodMinSecs = 125;
         }
-        JOB_PERIOD_SECS = jobPeriodSecs;
+        EXPIRATION_MODE = "expiration"
+                .equalsIgnoreCase(System.getProperty(PROP_DETECTION_MODE, DEFAULT_DETECTION_MODE));
+        TICK_MS = tickMs > 0 ? tickMs : 1000L;
         JOB_THREADS = jobThreads;
         PING_PERIOD_FACTOR = pingPeriodFactor;
         PING_PERIOD_MIN_SECS = pingPeriodMinSecs;
+        PING_FLUSH_MS = Math.min(MAX_PING_FLUSH_MS, Math.max(0L, getLongProperty(PROP_PING_FLUSH_MS,
+                DEFAULT_PING_FLUSH_MS)));
+        OFFHEAP_STANDALONE_STORE = "offheap"
+                .equalsIgnoreCase(System.getProperty(PROP_STANDALONE_STORE, DEFAULT_STANDALONE_STORE));
+        IN_VM_PINGS = "in-vm".equalsIgnoreCase(System.getProperty(PROP_PING_SOURCE, DEFAULT_PING_SOURCE));
+        PHI_DETECTOR = "phi".equalsIgnoreCase(System.getProperty(PROP_DETECTOR, DEFAULT_DETECTOR));
+        REACTIVE_EXECUTION = "reactive".equalsIgnoreCase(System.getProperty(PROP_EXECUTION, DEFAULT_EXECUTION));
+        FEED_LIVENESS = "feed".equalsIgnoreCase(System.getProperty(PROP_LIVENESS, DEFAULT_LIVENESS));
+        MIN_PING_INTERVAL_MS = FEED_LIVENESS
+                ? Math.max(0L, getLongProperty(PROP_FEED_PING_COALESCE_MS, DEFAULT_FEED_PING_COALESCE_MS))
+                : 0L;
+        double phiThreshold;
+        try {
+            phiThreshold = Double
+                    .valueOf(System.getProperty(PROP_PHI_THRESHOLD, DEFAULT_PHI_THRESHOLD))
+                    .doubleValue();
+        } catch (Exception e) {
+            phiThreshold = 8.0;
+        }
+        PHI_THRESHOLD = phiThreshold > 0.0 ? phiThreshold : 8.0;
+        AGGREGATION_WINDOW_MS = Math.max(0L, getLongProperty(PROP_AGGREGATION_WINDOW_MS,
+                DEFAULT_AGGREGATION_WINDOW_MS));
+        AGGREGATION_MAX_FEEDS = (int) Math.max(1L, getLongProperty(PROP_AGGREGATION_MAX_FEEDS,
+                DEFAULT_AGGREGATION_MAX_FEEDS));
+        WRITE_BATCH_SIZE = (int) Math.max(1L, getLongProperty(PROP_WRITE_BATCH_SIZE, DEFAULT_WRITE_BATCH_SIZE));
+        double stormThreshold;
+        try {
+            stormThreshold = Double
+                    .valueOf(System.getProperty(PROP_STORM_THRESHOLD, DEFAULT_STORM_THRESHOLD))
+                    .doubleValue();
+        } catch (Exception e) {
+            stormThreshold = 0.2;
+        }
+        STORM_THRESHOLD = stormThreshold;
+        INVENTORY_PAGE_CONCURRENCY = (int) Math.max(1L, getLongProperty(PROP_INVENTORY_PAGE_CONCURRENCY,
+                DEFAULT_INVENTORY_PAGE_CONCURRENCY));
+        RECONNECT_WINDOW_MS = Math.max(0L, getLongProperty(PROP_RECONNECT_WINDOW_MS, DEFAULT_RECONNECT_WINDOW_MS));
+        AVAIL_INDEX_TTL_MS = Math.max(0L, getLongProperty(PROP_AVAIL_INDEX_TTL_SECS, DEFAULT_AVAIL_INDEX_TTL_SECS))
+                * 1000L;
+    }
+
+    private static long getLongProperty(String name, String defaultValue) {
+        try {
+            return Long.valueOf(System.getProperty(name, defaultValue)).longValue();
+        } catch (Exception e) {
+            return Long.valueOf(defaultValue).longValue();
+        }
     }
 
     private final Logger log = Logger.getLogger(BackfillCacheManager.class);
@@ -194,24 +519,102 @@ public class BackfillCacheManager implements BackfillCache {
      */
     private boolean standalone = true;
 
+    private TopologyChangeListener topologyChangeListener;
+
+    /**
+     * Single thread driving the timing wheel.
+     */
+    private ScheduledExecutorService timerService;
+
     /**
-     * Number of cache members
+     * Performs the checks and backfills for expired feeds, keeping blocking work off of the timer thread. Only with
+     * pool execution.
      */
-    private int numMembers = 1;
+    private ExecutorService executorService;
 
     /**
-     * Each member assigned a unique number from 0..numMembers-1.
+     * Runs the deadline checks of feeds.
      */
-    private int memberNumber = 0;
+    private Executor checkExecutor;
 
-    private ScheduledExecutorService executorService;
+    /**
+     * Runs backfills and other work that may block, e.g. on inventory.
+     */
+    private Executor backfillExecutor;
+
+    private TimingWheel<CacheKey> timingWheel;
+
+    /**
+     * Canonical keys of the feeds handled by this member, also holding their pending (conflated) pings.
+     */
+    private final FeedKeyTable feedKeys = new FeedKeyTable();
+
+    private FeedExpirationListener expirationListener;
+
+    /**
+     * The ping records, the backfill cache unless standalone with the off-heap store.
+     */
+    private PingTable pingTable;
+
+    /**
+     * Only with the phi detector.
+     */
+    private PhiAccrualDetector phiDetector;
 
-    private Map<CacheKey, ScheduledFuture<?>> jobMap = new ConcurrentHashMap<>();
+    /**
+     * Only when backfills are aggregated.
+     */
+    private BackfillAggregator<CacheKey> backfillAggregator;
+
+    /**
+     * Only when storm detection is enabled.
+     */
+    private BackfillStormGuard<CacheKey> stormGuard;
+
+    /**
+     * The largest max quiet time armed, it only grows. Sizes the storm window.
+     */
+    private final AtomicLong maxQuietPeriodMs = new AtomicLong();
+
+    /**
+     * Bounds and paces all of the backfill writes to Metrics.
+     */
+    private BackfillWriter backfillWriter;
+
+    /**
+     * Only when the avail index is enabled.
+     */
+    private AvailMetricIndex availMetricIndex;
+
+    /**
+     * Loads the avail index, only when it is enabled.
+     */
+    private ExecutorService indexExecutor;
+
+    /**
+     * Backfills in flight and recently completed, to avoid duplicate backfills of a feed.
+     */
+    private BackfillRegistry backfillRegistry;
+
+    /**
+     * Only with a reconnect window.
+     */
+    private FeedCloseDebouncer<String> closeDebouncer;
+
+    /**
+     * Only with in-VM pings, once subscribed to Metrics.
+     */
+    private volatile Subscription pingTap;
+
+    /**
+     * Applies the in-VM pings off of the Metrics insert path, only with in-VM pings and no conflation.
+     */
+    private ExecutorService pingTapExecutor;
 
     // Lazy init these when we actually need to do a backfill
-    private MetricsService metricsService;
+    private volatile MetricsService metricsService;
 
-    private InventoryService inventoryService;
+    private volatile InventoryService inventoryService;
 
     private MIQEventUtils miqEventUtils = new MIQEventUtils();
 
@@ -232,23 +635,197 @@ public class BackfillCacheManager implements BackfillCache {
 
     @PostConstruct
     public void init() {
-        // Cache manager has an active transport (i.e. jgroups) when is configured on distributed mode
+        if (REACTIVE_EXECUTION) {
+            // No ceiling, a backfill blocked on a slow inventory never delays the detection of other feeds
+            log.info("Backfill using reactive execution");
+            checkExecutor = schedulerExecutor(Schedulers.computation());
+            backfillExecutor = schedulerExecutor(Schedulers.io());
+        } else {
+            // This is basically a fixed size pool, the size may need to be increased if there are a lot of
+            // concurrent backfills.
+            executorService = Executors.newFixedThreadPool(JOB_THREADS);
+            checkExecutor = executorService;
+            backfillExecutor = executorService;
+        }
+
+        // Cache manager has an active transport (i.e. jgroups) when is configured on distributed mode.
         standalone = (null == cacheManager.getTransport());
+        if (standalone && !EXPIRATION_MODE && OFFHEAP_STANDALONE_STORE) {
+            log.info("Backfill ping records stored off-heap");
+            pingTable = new OffHeapPingTable(1024);
+        } else {
+            pingTable = new InfinispanPingTable(backfillCache,
+                    EXPIRATION_MODE ? BackfillCacheManager::maxIdleMs : null);
+        }
+
+        if (PHI_DETECTOR) {
+            int windowSize = (int) getLongProperty(PROP_PHI_WINDOW_SIZE, DEFAULT_PHI_WINDOW_SIZE);
+            phiDetector = new PhiAccrualDetector(PHI_THRESHOLD,
+                    Math.max(PhiAccrualDetector.MIN_SAMPLES, windowSize),
+                    getLongProperty(PROP_PHI_MIN_STD_DEV_MS, DEFAULT_PHI_MIN_STD_DEV_MS),
+                    getLongProperty(PROP_PHI_ACCEPTABLE_PAUSE_MS, DEFAULT_PHI_ACCEPTABLE_PAUSE_MS),
+                    PING_PERIOD_MIN_SECS * 1000L, MIN_PING_INTERVAL_MS);
+            log.info("Backfill using phi-accrual detector with threshold " + PHI_THRESHOLD);
+        }
+
+        if (AGGREGATION_WINDOW_MS > 0) {
+            backfillAggregator = new BackfillAggregator<>(getTimerService(), backfillExecutor,
+                    AGGREGATION_WINDOW_MS, AGGREGATION_MAX_FEEDS, this::doBackfill);
+        }
+
+        backfillRegistry = new BackfillRegistry(Math.max(0L, getLongProperty(PROP_FORCED_BACKFILL_SUPPRESSION_SECS,
+                DEFAULT_FORCED_BACKFILL_SUPPRESSION_SECS)) * 1000L, MAX_BACKFILL_IN_FLIGHT_MS);
+
+        if (AVAIL_INDEX_TTL_MS > 0) {
+            // bounded and apart from the backfill pool, index loads must never delay the detection of dead feeds
+            indexExecutor = new ThreadPoolExecutor(INDEX_LOAD_THREADS, INDEX_LOAD_THREADS, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(INDEX_LOAD_QUEUE_SIZE));
+            availMetricIndex = new AvailMetricIndex(feedId -> {
+                if (!initServices()) {
+                    throw new IllegalStateException("Inventory service is not available");
+                }
+                return getAvailMetricsForFeed(feedId);
+            }, indexExecutor, AVAIL_INDEX_TTL_MS);
+            log.info("Backfill avail index enabled with TTL " + AVAIL_INDEX_TTL_MS + "ms");
+        }
+
+        backfillWriter = new BackfillWriter(
+                batch -> metricsService.addDataPoints(MetricType.AVAILABILITY, Observable.from(batch)),
+                getTimerService(), WRITE_BATCH_SIZE,
+                (int) getLongProperty(PROP_WRITE_CONCURRENCY, DEFAULT_WRITE_CONCURRENCY),
+                getLongProperty(PROP_WRITE_RATE, DEFAULT_WRITE_RATE));
+
+        if (RECONNECT_WINDOW_MS > 0) {
+            closeDebouncer = new FeedCloseDebouncer<>(this::reconnectWindowMs, this::backfillClosedFeeds);
+            long sweepMs = Math.min(1000L, RECONNECT_WINDOW_MS);
+            getTimerService().scheduleWithFixedDelay(() -> {
+                try {
+                    closeDebouncer.sweep(System.currentTimeMillis());
+                } catch (Exception e) {
+                    log.errorf(e, "Failed to process closed feed connections");
+                }
+            }, sweepMs, sweepMs, TimeUnit.MILLISECONDS);
+        }
+
+        if (STORM_THRESHOLD > 0.0) {
+            stormGuard = new BackfillStormGuard<>(getTimerService(), checkExecutor,
+                    () -> null != timingWheel ? timingWheel.size() : feedKeys.size(),
+                    this::isStillDue, this::dispatchBackfill, STORM_THRESHOLD,
+                    (int) getLongProperty(PROP_STORM_MIN_FEEDS, DEFAULT_STORM_MIN_FEEDS),
+                    getLongProperty(PROP_STORM_WINDOW_MS, DEFAULT_STORM_WINDOW_MS), maxQuietPeriodMs::get,
+                    getLongProperty(PROP_STORM_GRACE_MS, DEFAULT_STORM_GRACE_MS),
+                    (int) getLongProperty(PROP_STORM_RELEASE_PER_SEC, DEFAULT_STORM_RELEASE_PER_SEC));
+        }
+
+        if (EXPIRATION_MODE) {
+            log.info("Backfill detection using cache entry expiration");
+            expirationListener = new FeedExpirationListener();
+            backfillCache.addListener(expirationListener);
+
+        } else {
+            if (null != System.getProperty(PROP_JOB_PERIOD_SECS)) {
+                log.warnf("%s is deprecated, use %s. Timing wheel tick is %dms", PROP_JOB_PERIOD_SECS, PROP_TICK_MS,
+                        TICK_MS);
+            }
+            log.info("Backfill detection using timing wheel with tick " + TICK_MS + "ms");
+            timingWheel = new TimingWheel<>(TICK_MS, System.currentTimeMillis(),
+                    (key, deadline) -> checkExecutor.execute(new BackfillCheckJob(key)));
+            getTimerService().scheduleAtFixedRate(() -> {
+                try {
+                    timingWheel.advance(System.currentTimeMillis());
+                } catch (Exception e) {
+                    log.errorf(e, "Failed to advance backfill timing wheel");
+                }
+            }, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+        }
+
+        if (PING_FLUSH_MS > 0) {
+            log.info("Conflating feed pings with flush interval " + PING_FLUSH_MS + "ms");
+            getTimerService().scheduleWithFixedDelay(() -> {
+                try {
+                    flushPings();
+                } catch (Exception e) {
+                    log.errorf(e, "Failed to flush feed pings");
+                }
+            }, PING_FLUSH_MS, PING_FLUSH_MS, TimeUnit.MILLISECONDS);
+        }
+
+        // Detection must be running before the first topology is processed so that already-monitored feeds are
+        // re-armed.
         if (standalone) {
             log.info("Initializing Standalone Availability Cache");
+            if (IN_VM_PINGS) {
+                if (PING_FLUSH_MS <= 0) {
+                    // when full, the Metrics insert thread applies the ping itself, i.e. is slowed down
+                    pingTapExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                            new ArrayBlockingQueue<>(PING_TAP_QUEUE_SIZE), new ThreadPoolExecutor.CallerRunsPolicy());
+                }
+                // Metrics may be deployed after us, retry until subscribed
+                getTimerService().scheduleWithFixedDelay(this::startPingTap, 0L, PING_TAP_RETRY_SECS,
+                        TimeUnit.SECONDS);
+            }
         } else {
             log.info("Initializing Distributed Availability Cache");
             processTopologyChange();
+            topologyChangeListener = new TopologyChangeListener();
+            cacheManager.addListener(topologyChangeListener);
         }
+    }
 
-        // This is basically a fixed size pool, the size may need to be increased if there are a lot of
-        // active feeds.
-        executorService = Executors.newScheduledThreadPool(JOB_THREADS);
+    private ScheduledExecutorService getTimerService() {
+        if (null == timerService) {
+            timerService = Executors.newSingleThreadScheduledExecutor();
+        }
+        return timerService;
     }
 
     @PreDestroy
     public void close() {
-        executorService.shutdownNow();
+        if (null != pingTap) {
+            pingTap.unsubscribe();
+        }
+        if (null != pingTapExecutor) {
+            pingTapExecutor.shutdownNow();
+        }
+        if (null != topologyChangeListener) {
+            cacheManager.removeListener(topologyChangeListener);
+        }
+        if (null != expirationListener) {
+            backfillCache.removeListener(expirationListener);
+        }
+        if (null != backfillAggregator) {
+            // the feeds found dead in the last window, their end of window timer is about to be cancelled
+            backfillAggregator.close();
+        }
+        if (null != timerService) {
+            timerService.shutdownNow();
+        }
+        if (PING_FLUSH_MS > 0) {
+            // don't lose the last pings, they are needed to establish ping periods after a restart
+            flushPings();
+        }
+        if (null != executorService) {
+            executorService.shutdownNow();
+        }
+        if (null != indexExecutor) {
+            indexExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return an executor running each task on its own worker of the scheduler
+     */
+    static Executor schedulerExecutor(Scheduler scheduler) {
+        return command -> {
+            Scheduler.Worker worker = scheduler.createWorker();
+            worker.schedule(() -> {
+                try {
+                    command.run();
+                } finally {
+                    worker.unsubscribe();
+                }
+            });
+        };
     }
 
     @Override
@@ -256,6 +833,65 @@ public class BackfillCacheManager implements BackfillCache {
         return standalone;
     }
 
+    @Override
+    @Lock(LockType.READ)
+    public boolean isPingTapActive() {
+        Subscription tap = pingTap;
+        return null != tap && !tap.isUnsubscribed();
+    }
+
+    /**
+     * Subscribe to the availability writes of the co-deployed Metrics, unless already subscribed. Only called from
+     * the timer thread. Quiet while Metrics is not deployed, the JMS pings are used meanwhile.
+     */
+    private void startPingTap() {
+        if (isPingTapActive()) {
+            return;
+        }
+        MetricsService metrics = metricsService;
+        if (null == metrics) {
+            try {
+                metrics = (MetricsService) new InitialContext().lookup(METRICS_SERVICE);
+            } catch (Exception e) {
+                log.debugf("Metrics not available for in-VM feed pings: %s", e.getMessage());
+                return;
+            }
+        }
+        // an error unsubscribes the tap, the next attempt subscribes again
+        pingTap = metrics.insertedDataEvents()
+                .filter(m -> MetricType.AVAILABILITY == m.getType() && m.getId().startsWith(FEED_PREFIX))
+                .subscribe(this::onInsertedPing,
+                        e -> log.errorf(e, "In-VM feed pings failed, receiving them from JMS until resubscribed"));
+        log.info("Receiving feed pings in-VM from Metrics");
+    }
+
+    /**
+     * Called on the Metrics insert path for each write of a feed ping metric, so it must stay cheap. With ping
+     * conflation it only records the ping, otherwise the ping is handed off to the ping tap thread.
+     */
+    private void onInsertedPing(Metric<?> metric) {
+        for (DataPoint<?> dataPoint : metric.getDataPoints()) {
+            if (AvailabilityType.UP == dataPoint.getValue()) {
+                String tenantId = metric.getMetricId().getTenantId();
+                String metricId = metric.getId();
+                if (null == pingTapExecutor) {
+                    applyInsertedPing(tenantId, metricId);
+                } else {
+                    pingTapExecutor.execute(() -> applyInsertedPing(tenantId, metricId));
+                }
+                return;
+            }
+        }
+    }
+
+    private void applyInsertedPing(String tenantId, String metricId) {
+        try {
+            updateFeedAvailability(tenantId, metricId);
+        } catch (Exception e) {
+            log.warnf("Unable to update feed availability for %s: %s", metricId, e.getMessage());
+        }
+    }
+
     /**
      * Auxiliary interface to add Infinispan listener to the caches
      */
@@ -269,10 +905,41 @@ public class BackfillCacheManager implements BackfillCache {
     }
 
     /**
-     * Reset the memberNumber for this cache member given the new cluster topology. Each member should execute
+     * Dead-feed detector for expiration mode. Every member expires its copy of an idle entry, only the member
+     * responsible for the feed performs the backfill.
+     */
+    @Listener(sync = false)
+    public class FeedExpirationListener {
+        @CacheEntryExpired
+        public void onFeedExpired(CacheEntryExpiredEvent<CacheKey, CacheValue> event) {
+            CacheKey key = event.getKey();
+            CacheValue value = event.getValue();
+            if (0L == feedKeys.pendingPingTime(key)) {
+                feedKeys.remove(key);
+                // a feed with a backfill job keeps its phi history until the backfill
+                if (null != phiDetector && (null == value || !value.hasBackfillJob())) {
+                    phiDetector.remove(key);
+                }
+            }
+            if (null == value || !value.hasBackfillJob() || !isResponsible(key.getMetricId())) {
+                return;
+            }
+            log.infof("Feed %s has not reported for %d ms and will be backfilled.", key,
+                    System.currentTimeMillis() - value.getLastUpdateTime());
+            logPhi(key);
+            // the entry is gone, keep its tenants for the backfill
+            internTenants(key, value);
+            admitBackfill(key);
+        }
+    }
+
+    /**
+     * Rebuild the member table for this cache member given the new cluster topology. Each member should execute
      * this on a topology change.  This method and {@link BackfillCacheManager#isResponsible(String)} work together.
+     * The new table is published with a single reference swap, so ping handling is never blocked.
      */
     @Override
+    @Lock(LockType.READ)
     public void processTopologyChange() {
         List<Address> members = cacheManager.getMembers();
         Address member = cacheManager.getAddress();
@@ -282,20 +949,68 @@ public class BackfillCacheManager implements BackfillCache {
             return;
         }
 
-        Collections.sort(members);
-        numMembers = members.size();
-        memberNumber = members.indexOf(member);
+        MemberTable table = MemberTable.of(members, member);
+        MemberTable.publish(table);
+
+        log.info("Topology Update. Member " + member + " assigned number " + table.getLocalIndex() + " of "
+                + table.size());
+
+        // hand off feeds off of the view change thread
+        backfillExecutor.execute(() -> rebalance(table));
+    }
+
+    /**
+     * Re-arm detection for monitored feeds this member now owns, and release the ones it no longer owns. The
+     * backfill cache is replicated, so the whole scan is local. In expiration mode there is nothing to do,
+     * ownership is evaluated when an entry expires.
+     */
+    private void rebalance(MemberTable table) {
+        if (null == timingWheel) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        AtomicInteger armed = new AtomicInteger();
+        AtomicInteger released = new AtomicInteger();
+        try {
+            backfillCache.getAdvancedCache().withFlags(Flag.CACHE_MODE_LOCAL, Flag.SKIP_LOCKING)
+                    .entrySet().parallelStream()
+                    .filter(e -> e.getValue().hasBackfillJob())
+                    .forEach(e -> {
+                        CacheKey key = e.getKey();
+                        boolean owner = table.isLocalOwner(key.getMetricId());
+                        boolean scheduled = timingWheel.isScheduled(key);
+                        if (owner && !scheduled) {
+                            // know the tenants of the feed before it pings this member
+                            feedKeys.intern(key.getTenantId(), key.getMetricId());
+                            CacheValue value = e.getValue();
+                            internTenants(key, value);
+                            armDeadline(key, value);
+                            armed.incrementAndGet();
+                        } else if (!owner && scheduled) {
+                            timingWheel.cancel(key);
+                            released.incrementAndGet();
+                        }
+                    });
+        } catch (Exception e) {
+            log.errorf(e, "Failed to rebalance backfill jobs for %s", table);
+            return;
+        }
 
-        log.info("Topology Update. Member " + member + " assigned number " + memberNumber + " of " + numMembers);
+        long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        log.infof("Backfill rebalance for %s armed %d and released %d feeds in %d ms", table, armed.get(),
+                released.get(), durationMs);
     }
 
     @Override
     @Lock(LockType.READ)
     public boolean isResponsible(String metricId) {
-        int hash = metricId.hashCode();
-        int mod = hash % numMembers;
-        boolean result = mod == memberNumber;
-        log.trace("Member " + memberNumber + (result ? " is " : " is not ") + " responsible for " + metricId);
+        MemberTable table = MemberTable.current();
+        boolean result = table.isLocalOwner(metricId);
+        if (log.isTraceEnabled()) {
+            log.trace("Member " + table.getLocalIndex() + (result ? " is " : " is not ") + " responsible for "
+                    + metricId);
+        }
         return result;
     }
 
@@ -306,43 +1021,204 @@ public class BackfillCacheManager implements BackfillCache {
             return;
         }
 
-        CacheKey key = new CacheKey(tenantId, feedAvailabilityMetricId);
+        long now = System.currentTimeMillis();
+
+        // With feed liveness the tenant is only a backfill target of the feed's liveness entry
+        if (FEED_LIVENESS) {
+            feedKeys.intern(tenantId, feedAvailabilityMetricId);
+            tenantId = FEED_LIVENESS_TENANT;
+        }
+
+        // Absorb the ping, the latest ping per feed is written on the next flush. For an already known feed
+        // this allocates nothing.
+        if (PING_FLUSH_MS > 0) {
+            feedKeys.recordPing(tenantId, feedAvailabilityMetricId, now);
+            return;
+        }
 
+        CacheKey key = feedKeys.intern(tenantId, feedAvailabilityMetricId);
+        if (null != phiDetector) {
+            phiDetector.recordArrival(key, now);
+        }
         try {
-            CacheValue value = backfillCache.get(key);
-            if (null == value) {
-                backfillCache.put(key, new CacheValue());
+            CacheValue value = pingTable.update(key, v -> nextValue(key, v, now));
+            armDeadline(key, value);
+            warmIndex(key, value);
+        } catch (Exception e) {
+            log.warn("Unable to update feed availability for " + key + ". Will try again on next update");
+        }
+    }
 
+    @Override
+    @Lock(LockType.READ)
+    public void updateFeedAvailability(Collection<FeedPing> pings) {
+        // one ownership snapshot for the whole batch
+        MemberTable table = MemberTable.current();
+        long now = System.currentTimeMillis();
+
+        Map<CacheKey, Long> direct = PING_FLUSH_MS > 0 ? null : new HashMap<>();
+        for (FeedPing ping : pings) {
+            String feedAvailabilityMetricId = ping.getMetricId();
+            if (!table.isLocalOwner(feedAvailabilityMetricId)) {
+                continue;
+            }
+            String tenantId = ping.getTenantId();
+            if (FEED_LIVENESS) {
+                feedKeys.intern(tenantId, feedAvailabilityMetricId);
+                tenantId = FEED_LIVENESS_TENANT;
+            }
+            if (null == direct) {
+                feedKeys.recordPing(tenantId, feedAvailabilityMetricId, now);
             } else {
-                long now = System.currentTimeMillis();
-
-                // On the second ping, if valid, start the backfill check job
-                if (!value.hasBackfillJob()) {
-                    long pingPeriodMs = now - value.getLastUpdateTime();
-
-                    if (pingPeriodMs <= (PING_PERIOD_MIN_SECS * 1000)) {
-                        log.debugf("Starting Backfill Job for %s", key);
-                        long maxQuietPeriodMs = (long) (pingPeriodMs * PING_PERIOD_FACTOR);
-                        value.setMaxQuietPeriodMs(maxQuietPeriodMs);
-                        ScheduledFuture<?> sf = executorService.scheduleWithFixedDelay(
-                                new BackfillCheckJob(key, maxQuietPeriodMs),
-                                JOB_PERIOD_SECS, JOB_PERIOD_SECS, TimeUnit.SECONDS);
-                        jobMap.put(key, sf);
-                    } else {
-                        log.debugf("Ignoring Backfill Job for %s, ping period %d > %d (the minimum)",
-                                key, pingPeriodMs, PING_PERIOD_MIN_SECS);
-                    }
-                }
+                direct.put(feedKeys.intern(tenantId, feedAvailabilityMetricId), now);
+            }
+        }
+
+        if (null != direct && !direct.isEmpty()) {
+            try {
+                applyPings(direct);
+            } catch (Exception e) {
+                log.warnf("Unable to update availability of %d feeds. Will try again on next update", direct.size());
+            }
+        }
+    }
+
+    /**
+     * Compute the cache value resulting from a ping. Has no side effects, it may be re-evaluated when a
+     * concurrent update wins.
+     *
+     * @param key the feed ping key
+     * @param value the current cache value, null if the feed is not yet known
+     * @param pingTime the time the ping was received
+     * @return the value to store, or null if there is nothing to update
+     */
+    private CacheValue nextValue(CacheKey key, CacheValue value, long pingTime) {
+        String[] tenants = replicatedTenants(key, value);
+        if (null == value) {
+            return new CacheValue(pingTime, 0L, tenants);
+        }
+        if (pingTime <= value.getLastUpdateTime() + MIN_PING_INTERVAL_MS) {
+            // coalesced, unless a new tenant must be replicated
+            return tenants == value.getTenants() ? null : value.withTenants(tenants);
+        }
+
+        // With the phi detector the max quiet time follows the observed ping intervals, once there are enough
+        if (null != phiDetector) {
+            long phiMaxQuietPeriodMs = phiDetector.maxQuietPeriodMs(key);
+            if (phiMaxQuietPeriodMs > 0) {
+                return new CacheValue(pingTime, phiMaxQuietPeriodMs, tenants);
+            }
+        }
+
+        // On the second ping, if valid, start the backfill check job
+        long maxQuietPeriodMs = value.getMaxQuietPeriodMs();
+        if (!value.hasBackfillJob()) {
+            long pingPeriodMs = pingTime - value.getLastUpdateTime();
+
+            if (pingPeriodMs <= (PING_PERIOD_MIN_SECS * 1000)) {
+                log.debugf("Starting Backfill Job for %s", key);
+                maxQuietPeriodMs = (long) (pingPeriodMs * PING_PERIOD_FACTOR);
+            } else {
+                log.debugf("Ignoring Backfill Job for %s, ping period %d > %d (the minimum)",
+                        key, pingPeriodMs, PING_PERIOD_MIN_SECS);
+            }
+        }
+
+        return new CacheValue(pingTime, maxQuietPeriodMs, tenants);
+    }
+
+    /**
+     * @return the tenants to replicate with the value: those of the value plus, for a feed liveness entry when
+     * distributed, the tenants the feed pinged this member for. The value's own array when nothing is new.
+     */
+    private String[] replicatedTenants(CacheKey key, CacheValue value) {
+        String[] tenants = null == value ? CacheValue.NO_TENANTS : value.getTenants();
+        if (standalone || !FEED_LIVENESS_TENANT.equals(key.getTenantId())) {
+            return tenants;
+        }
+        return feedKeys.mergeTenants(key.getFeedId(), tenants);
+    }
+
+    /**
+     * Make the replicated tenants of a feed liveness entry known locally, as backfill targets.
+     */
+    private void internTenants(CacheKey key, CacheValue value) {
+        if (null != value) {
+            for (String tenantId : value.getTenants()) {
+                feedKeys.intern(tenantId, key.getMetricId());
+            }
+        }
+    }
 
-                // Update the cache with the latest ping
-                value.setLastUpdateTime(now);
-                backfillCache.put(key, value);
+    /**
+     * Move the deadline of the feed, this is O(1) and nothing runs for the feed until it really passes. Also tracks
+     * the largest max quiet time, in either detection mode.
+     */
+    private void armDeadline(CacheKey key, CacheValue value) {
+        if (null == value || !value.hasBackfillJob()) {
+            return;
+        }
+        // a volatile read per ping, a write only when it grows
+        long quietMs = value.getMaxQuietPeriodMs();
+        for (long max = maxQuietPeriodMs.get(); quietMs > max; max = maxQuietPeriodMs.get()) {
+            if (maxQuietPeriodMs.compareAndSet(max, quietMs)) {
+                break;
             }
+        }
+        if (null != timingWheel) {
+            timingWheel.schedule(key, value.getLastUpdateTime() + quietMs);
+        }
+    }
+
+    /**
+     * Keep the inventory of monitored feeds ready for a backfill. Cheap when the index entry is fresh. Only once the
+     * feed's ping period is established, i.e. not on the first ping after a reconnect, while the agent may still be
+     * re-syncing its inventory.
+     */
+    private void warmIndex(CacheKey key, CacheValue value) {
+        if (null != availMetricIndex && null != value && value.hasBackfillJob()) {
+            availMetricIndex.warm(key.getFeedId());
+        }
+    }
+
+    /**
+     * Write the latest conflated ping of every feed, see {@link #applyPings(Map)}. Only called from the timer
+     * thread, which is then the only writer of pings for the feeds owned by this member.
+     */
+    private void flushPings() {
+        Map<CacheKey, Long> pings = feedKeys.pendingPings();
+        if (pings.isEmpty()) {
+            return;
+        }
+
+        try {
+            applyPings(pings);
+            // only now, a check must never see a ping neither pending nor in the cache
+            feedKeys.clearPendingPings(pings);
         } catch (Exception e) {
-            log.warn("Unable to update feed availability for " + key + ". Will try again on next update");
+            log.warnf("Unable to flush %d feed pings. Will try again on next flush", pings.size());
         }
     }
 
+    /**
+     * Apply the pings with a single bulk read and a conditional write per feed, as the single ping update does. A
+     * concurrent write of the same feed, a ping received by another thread or the end of its backfill job, is never
+     * overwritten and the lastUpdateTime of a feed never moves backwards. Only the feeds written concurrently are
+     * read again.
+     */
+    private void applyPings(Map<CacheKey, Long> pings) {
+        if (null != phiDetector) {
+            pings.forEach(phiDetector::recordArrival);
+        }
+        Map<CacheKey, CacheValue> updates = pingTable.updateAll(pings.keySet(),
+                (key, value) -> nextValue(key, value, pings.get(key)));
+        for (Map.Entry<CacheKey, CacheValue> update : updates.entrySet()) {
+            armDeadline(update.getKey(), update.getValue());
+            warmIndex(update.getKey(), update.getValue());
+        }
+        log.tracef("Applied %d feed pings", updates.size());
+    }
+
     @Override
     @Lock(LockType.READ)
     public void forceBackfill(String feedId) {
@@ -357,102 +1233,335 @@ public class BackfillCacheManager implements BackfillCache {
             return;
         }
 
-        forceBackfill(DEFAULT_TENANT, feedAvailabilityMetricId);
+        // backfill situation, for all of the feed's tenants at once
+        List<CacheKey> keys = new ArrayList<>();
+        for (CacheKey key : livenessKeys(feedId)) {
+            if (backfillRegistry.suppress(key, lastPingTime(key))) {
+                log.debugf("Feed %s is already down, ignoring forced backfill", key);
+            } else {
+                log.infof("Feed %s has been reported down and will be backfilled.", key);
+                keys.add(key);
+            }
+        }
+        if (!keys.isEmpty()) {
+            submitBackfill(keys);
+        }
+    }
+
+    /**
+     * @return the liveness entry keys of the feed: the feed's own key with feed liveness, otherwise its tenant keys
+     */
+    private Collection<CacheKey> livenessKeys(String feedId) {
+        return feedKeys.livenessKeys(feedId, FEED_LIVENESS, DEFAULT_TENANT);
+    }
+
+    /**
+     * @return the keys to backfill for a liveness entry, the feed's tenant keys for a feed liveness entry
+     */
+    private Collection<CacheKey> backfillTargets(CacheKey key) {
+        return feedKeys.backfillTargets(key, DEFAULT_TENANT);
+    }
+
+    @Override
+    @Lock(LockType.READ)
+    public void feedConnectionClosed(String feedId) {
+        // ownership first, this is called on every member for every closed feed
+        if (!isResponsible(FEED_PREFIX + feedId)) {
+            return;
+        }
+        // the agent re-syncs its inventory when it reconnects
+        if (null != availMetricIndex) {
+            availMetricIndex.invalidate(feedId);
+        }
+        if (null == closeDebouncer) {
+            forceBackfill(feedId);
+            return;
+        }
+        closeDebouncer.closed(feedId, System.currentTimeMillis());
     }
 
-    private void forceBackfill(String tenantId, String feedAvailabilityMetricId) {
-        CacheKey key = new CacheKey(tenantId, feedAvailabilityMetricId);
-        CacheValue value = backfillCache.getOrDefault(key, new CacheValue());
+    /**
+     * @return the reconnect window plus the ping period of the feed, the longest of its keys. A feed whose ping
+     * period is not known yet is not checked by detection either, the reconnect window is then enough.
+     */
+    private long reconnectWindowMs(String feedId) {
+        long pingPeriodMs = 0L;
+        for (CacheKey key : livenessKeys(feedId)) {
+            CacheValue value = pingTable.get(key);
+            if (null != value && value.hasBackfillJob()) {
+                pingPeriodMs = Math.max(pingPeriodMs, (long) (value.getMaxQuietPeriodMs() / PING_PERIOD_FACTOR));
+            }
+        }
+        return RECONNECT_WINDOW_MS + pingPeriodMs;
+    }
 
-        // backfill situation
-        log.infof("Feed %s has been reported down and will be backfilled.", key);
-        doBackfill(key, value);
+    /**
+     * Backfill, in one batch, the closed feeds that did not ping since their close. They are DOWN as of their
+     * close, not as of now, so that the DOWN avails can't land after the UP avails of an agent reconnecting
+     * meanwhile.
+     */
+    private void backfillClosedFeeds(List<String> feedIds, List<Long> closeTimes) {
+        List<CacheKey> keys = new ArrayList<>(feedIds.size());
+        Map<String, Long> downTimes = new HashMap<>();
+        int reconnected = 0;
+        for (int i = 0; i < feedIds.size(); ++i) {
+            String feedId = feedIds.get(i);
+            // ownership may have moved during the window
+            if (!isResponsible(FEED_PREFIX + feedId)) {
+                continue;
+            }
+            Collection<CacheKey> feedTenantKeys = livenessKeys(feedId);
+            long closeTime = closeTimes.get(i);
+            if (feedTenantKeys.stream().anyMatch(key -> lastPingTime(key) > closeTime)) {
+                ++reconnected;
+                continue;
+            }
+            for (CacheKey key : feedTenantKeys) {
+                if (!backfillRegistry.suppress(key, lastPingTime(key))) {
+                    keys.add(key);
+                    downTimes.put(feedId, closeTime);
+                }
+            }
+        }
+        log.infof("Feed connections closed: %d feeds reconnected within their reconnect window, %d feed keys will "
+                + "be backfilled", reconnected, keys.size());
+        if (!keys.isEmpty()) {
+            backfillExecutor.execute(() -> doBackfill(keys, downTimes));
+        }
+    }
 
+    /**
+     * @return the time of the last ping known for the feed, flushed or not, 0 if unknown
+     */
+    private long lastPingTime(CacheKey key) {
+        return Math.max(pingTable.lastUpdateTime(key), feedKeys.pendingPingTime(key));
     }
 
     private List<MetricResource> getAvailMetricsForFeed(String feedId) {
+        return streamAvailMetricsForFeed(feedId).toList().toBlocking().single();
+    }
+
+    /**
+     * Stream the avail metrics of the feed from inventory. The first page gives the result size, the remaining
+     * pages are then fetched concurrently, at most inventory-page-concurrency at a time and only as fast as they
+     * are consumed. Each page is turned into its avail metrics as soon as it arrives, the resources of the feed are
+     * never all held in memory.
+     */
+    private Observable<MetricResource> streamAvailMetricsForFeed(String feedId) {
         ResourceFilter filter = ResourceFilter.forFeed(feedId).build();
-        ResultSet<org.hawkular.inventory.api.model.Resource> rs = inventoryService.getResources(filter);
-        long resultSetSize = rs.getResultSize();
-        long startOffset = rs.getStartOffset();
-        long rsSize;
-        int maxResults = 100;
-        List<MetricResource> availMetrics = new ArrayList<>();
-        do {
-            for (org.hawkular.inventory.api.model.Resource resource : rs.getResults()) {
-                for (org.hawkular.inventory.api.model.Metric metric : resource.getMetrics()) {
-                    if (metric.getType().equals(MetricType.AVAILABILITY.getText())) {
-                        availMetrics.add(new MetricResource(resource.getId(), metric));
+        return Observable.fromCallable(() -> inventoryService.getResources(filter))
+                .subscribeOn(Schedulers.io())
+                .flatMap(first -> {
+                    long resultSetSize = first.getResultSize();
+                    long nextOffset = first.getStartOffset() + first.getResults().size();
+                    if (first.getResults().isEmpty() || nextOffset >= resultSetSize) {
+                        return Observable.just(first);
                     }
-                }
+                    // don't request a page past the last one
+                    int pages = (int) ((resultSetSize - nextOffset + INVENTORY_PAGE_SIZE - 1) / INVENTORY_PAGE_SIZE);
+                    return Observable.just(first).concatWith(Observable.range(0, pages)
+                            .flatMap(page -> Observable
+                                    .fromCallable(() -> inventoryService.getResources(filter,
+                                            nextOffset + (long) page * INVENTORY_PAGE_SIZE, INVENTORY_PAGE_SIZE))
+                                    .subscribeOn(Schedulers.io()), INVENTORY_PAGE_CONCURRENCY));
+                })
+                .concatMapIterable(ResultSet::getResults)
+                .concatMapIterable(resource -> {
+                    List<MetricResource> availMetrics = new ArrayList<>();
+                    for (org.hawkular.inventory.api.model.Metric metric : resource.getMetrics()) {
+                        if (metric.getType().equals(MetricType.AVAILABILITY.getText())) {
+                            availMetrics.add(new MetricResource(resource.getId(), metric));
+                        }
+                    }
+                    return availMetrics;
+                });
+    }
+
+    /**
+     * Backfill a feed found dead by detection, unless the storm guard holds it.
+     */
+    private void admitBackfill(CacheKey key) {
+        if (null != stormGuard) {
+            stormGuard.due(key);
+        } else {
+            dispatchBackfill(key);
+        }
+    }
+
+    /**
+     * Non-blocking {@link #submitBackfill(List)}.
+     */
+    private void dispatchBackfill(CacheKey key) {
+        if (null != backfillAggregator) {
+            if (!backfillAggregator.add(key)) {
+                backfillRegistry.countDuplicate();
             }
-            rsSize = rs.getResults().size();
-            startOffset += rsSize;
-            rs = inventoryService.getResources(filter, startOffset, maxResults);
+        } else {
+            backfillExecutor.execute(() -> doBackfill(Collections.singletonList(key)));
+        }
+    }
 
-        } while (startOffset < resultSetSize);
-        return availMetrics;
+    /**
+     * @return true if the feed is monitored and has not pinged within its max quiet time
+     */
+    private boolean isStillDue(CacheKey key) {
+        CacheValue value = pingTable.get(key);
+        if (null == value) {
+            // in expiration mode a dead feed's entry is gone, a ping would have re-created it
+            return EXPIRATION_MODE && 0L == feedKeys.pendingPingTime(key);
+        }
+        if (!value.hasBackfillJob()) {
+            return false;
+        }
+        long lastUpdateTime = Math.max(value.getLastUpdateTime(), feedKeys.pendingPingTime(key));
+        return System.currentTimeMillis() - lastUpdateTime > value.getMaxQuietPeriodMs();
     }
 
-    private void doBackfill(CacheKey key, CacheValue value) {
-        // only backfill once, so stop the backfill job
-        cancelJob(key);
+    /**
+     * Backfill the feeds now, together, or with the next batch when backfills are aggregated.
+     */
+    private void submitBackfill(List<CacheKey> keys) {
+        if (null != backfillAggregator) {
+            for (CacheKey key : keys) {
+                if (!backfillAggregator.add(key)) {
+                    backfillRegistry.countDuplicate();
+                }
+            }
+        } else {
+            doBackfill(keys);
+        }
+    }
 
-        // mark the cache entry as no longer having a backfill job running
-        value.setMaxQuietPeriodMs(0L);
-        backfillCache.put(key, value);
+    /**
+     * Backfill a batch of feeds. The inventory is read once per distinct feed, whatever its number of tenants, and
+     * all of the DOWN avails are pushed with a single subscription, in bounded batches, through the shared
+     * {@link BackfillWriter}. Feeds missing from the index are streamed from inventory, so writes start with the
+     * first page.
+     */
+    private void doBackfill(List<CacheKey> requested) {
+        doBackfill(requested, Collections.emptyMap());
+    }
 
-        // Fetch from hwkinventory all avail metrics for the feed on this tenant
-        List<MetricResource> availMetrics = getAvailMetricsForFeed(key.getFeedId());
+    /**
+     * @param downTimes feedId -> the time the feed is DOWN from, now if not set
+     */
+    private void doBackfill(List<CacheKey> requested, Map<String, Long> downTimes) {
+        if (!initServices()) {
+            log.warnf("Could not perform backfill of %d feeds, not all services are available. Metrics=%s",
+                    requested.size(), metricsService);
+            return;
+        }
 
+        long start = System.nanoTime();
         long now = System.currentTimeMillis();
 
-        List<DataPoint<AvailabilityType>> down = new ArrayList<>(1);
-        down.add(new DataPoint<>(now, AvailabilityType.DOWN));
+        // join, i.e. skip, the feeds already being backfilled
+        backfillRegistry.prune(now);
+        List<CacheKey> keys = new ArrayList<>(requested.size());
+        for (CacheKey key : requested) {
+            if (backfillRegistry.start(key, now)) {
+                keys.add(key);
+            } else {
+                log.debugf("Backfill of Feed %s already in progress", key);
+            }
+        }
+        if (keys.isEmpty()) {
+            return;
+        }
 
-        List<Metric<AvailabilityType>> availabilites = new ArrayList<>();
-        for (MetricResource availMetric : availMetrics) {
-            // Set DOWN for all avail metrics reported by this feed/tenant,
-            // We are assuming two things:
-            // 1) All resources/metrics are from a javaagent
-            // 2) That javaagent is deployed and reporting on only one server
-            MetricId<AvailabilityType> metricId = new MetricId<>(key.getTenantId(), MetricType.AVAILABILITY,
-                    // TODO [lponce] to confirm with agent
-                    availMetric.getMetric().getProperties().get("id"));
-            Metric<AvailabilityType> backfillAvail = new Metric<>(metricId, down);
+        try {
+            doBackfill(keys, downTimes, now, start);
+        } catch (RuntimeException e) {
+            keys.forEach(k -> backfillRegistry.finish(k, now, false));
+            log.errorf(e, "Failed to backfill %d feeds %s", keys.size(), keys);
+        }
+    }
+
+    private void doBackfill(List<CacheKey> keys, Map<String, Long> downTimes, long now, long start) {
+        List<DataPoint<AvailabilityType>> downNow = new ArrayList<>(1);
+        downNow.add(new DataPoint<>(now, AvailabilityType.DOWN));
+
+        Map<String, List<CacheKey>> keysByFeed = new LinkedHashMap<>();
+        for (CacheKey key : keys) {
+            // only backfill once, so stop the backfill job
+            cancelJob(key);
 
-            // Trigger an AvailChange for the servers as going down with the agent
-            // Only metrics whose name is equal to MIQEventUtils.SERVER_AVAILABILITY_NAME are of interest because
-            //  these belong to a server
-            if (availMetric.getMetric().getName().equals(MIQEventUtils.SERVER_AVAILABILITY_NAME)) {
-                miqEventUtils.handleResourceAvailChange(key.getFeedId(), availMetric.getResourceId(),
-                        availMetric.getMetric().getName(), AvailabilityType.DOWN.name());
+            // the down time is not a ping interval, start sampling again when the feed returns
+            if (null != phiDetector) {
+                phiDetector.remove(key);
             }
-            availabilites.add(backfillAvail);
+
+            // mark the cache entry as no longer having a backfill job running. Don't resurrect an entry that is
+            // gone, i.e. expired.
+            CacheValue value = pingTable.update(key, v -> null == v ? null : v.withMaxQuietPeriodMs(0L));
+            // the feed may have pinged another member for some of its tenants
+            internTenants(key, value);
+
+            keysByFeed.computeIfAbsent(key.getFeedId(), f -> new ArrayList<>()).addAll(backfillTargets(key));
         }
 
-        // Set DOWN avail for the feed/tenant itself
-        MetricId<AvailabilityType> metricId = new MetricId<>(key.getTenantId(), MetricType.AVAILABILITY,
-                key.getMetricId());
-        Metric<AvailabilityType> backfillAvail = new Metric<>(metricId, down);
-        availabilites.add(backfillAvail);
+        // Fetch from the index, or stream from hwkinventory, all avail metrics for each feed, once for all of its
+        // tenants. Errors are isolated per feed: a feed whose inventory can't be read, or whose MIQ events fail, is
+        // reported as failed and the other feeds of the batch are still backfilled.
+        Set<String> failedFeeds = ConcurrentHashMap.newKeySet();
+        List<Observable<Metric<AvailabilityType>>> feedAvails = new ArrayList<>(keysByFeed.size());
+        for (Map.Entry<String, List<CacheKey>> e : keysByFeed.entrySet()) {
+            String feedId = e.getKey();
+            List<CacheKey> targets = e.getValue();
+            Long downTime = downTimes.get(feedId);
+            List<DataPoint<AvailabilityType>> down = null == downTime
+                    ? downNow
+                    : Collections.singletonList(new DataPoint<>(downTime, AvailabilityType.DOWN));
+            // deferred, so that errors raised while building the feed's avails are isolated as well
+            feedAvails.add(Observable.defer(() -> getBackfillAvails(feedId, targets, down))
+                    .onErrorResumeNext(t -> {
+                        failedFeeds.add(feedId);
+                        log.warnf(t, "Failed to backfill Feed %s", feedId);
+                        return Observable.empty();
+                    }));
+        }
+
+        // an agent re-syncs its inventory when it comes back, reload it then
+        if (null != availMetricIndex) {
+            keysByFeed.keySet().forEach(availMetricIndex::invalidate);
+        }
+        log.debugf("Backfill inventory %s, %s", availMetricIndex, backfillRegistry);
+
+        AtomicInteger availCount = new AtomicInteger();
+        Observable<Metric<AvailabilityType>> availabilites = Observable.concat(Observable.from(feedAvails))
+                .doOnNext(m -> availCount.incrementAndGet());
 
         // Push the avail to hwkmetrics
-        Observable<Void> observable = metricsService.addDataPoints(MetricType.AVAILABILITY, Observable.from(availabilites));
+        Observable<Void> observable = backfillWriter.write(availabilites);
         observable.subscribe(new Subscriber<Void>() {
 
             @Override
             public void onCompleted() {
-                if (log.isDebugEnabled()) {
-                    log.debugf("Successful backfill of Feed %s", key);
+                for (CacheKey key : keys) {
+                    backfillRegistry.finish(key, now, !failedFeeds.contains(key.getFeedId()));
+                }
+                long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                if (!failedFeeds.isEmpty()) {
+                    log.warnf("Backfill of %d feeds completed with %d failed feeds %s", keysByFeed.size(),
+                            failedFeeds.size(), failedFeeds);
+                } else if (1 == keys.size()) {
+                    if (log.isDebugEnabled()) {
+                        log.debugf("Successful backfill of Feed %s", keys.get(0));
+                    } else {
+                        log.infof("Successful backfill of Feed %s", keys.get(0));
+                    }
                 } else {
-                    log.infof("Successful backfill of Feed %s", key);
+                    log.infof("Successful backfill of %d feeds (%d avail metrics) in %d ms. Write queue depth %d, "
+                            + "in flight %d", keys.size(), availCount.get(), durationMs,
+                            backfillWriter.getQueueDepth(), backfillWriter.getInFlight());
                 }
             }
 
             @Override
             public void onError(Throwable arg0) {
-                log.warnf(arg0, "Failed to backfill Feed %s", key);
+                // only a failed write gets here, feed errors are isolated
+                keys.forEach(k -> backfillRegistry.finish(k, now, false));
+                log.warnf(arg0, "Failed to backfill %d feeds %s", keys.size(), keys);
             }
 
             @Override
@@ -461,7 +1570,78 @@ public class BackfillCacheManager implements BackfillCache {
         });
     }
 
-    private synchronized boolean initServices() {
+    /**
+     * @param feedId the feed
+     * @param keys the keys of the feed to backfill, one per tenant
+     * @param down the DOWN data point
+     * @return the DOWN avails of the feed for all of the tenants. MIQ events for the servers going down with the
+     * agent are triggered, once per server, as the avails are produced.
+     */
+    private Observable<Metric<AvailabilityType>> getBackfillAvails(String feedId, List<CacheKey> keys,
+            List<DataPoint<AvailabilityType>> down) {
+        // Set DOWN for all avail metrics reported by this feed/tenant,
+        // We are assuming two things:
+        // 1) All resources/metrics are from a javaagent
+        // 2) That javaagent is deployed and reporting on only one server
+        Observable<Metric<AvailabilityType>> availabilites;
+        AvailMetrics indexed = null != availMetricIndex ? availMetricIndex.lookup(feedId) : null;
+        if (null != indexed) {
+            for (String serverResourceId : indexed.getServerResourceIds()) {
+                fireServerDown(feedId, serverResourceId);
+            }
+            availabilites = Observable.from(indexed.getAvailMetricIds())
+                    .concatMapIterable(availMetricId -> toDown(keys, availMetricId, down));
+        } else {
+            availabilites = streamAvailMetricsForFeed(feedId)
+                    .doOnNext(availMetric -> {
+                        // Only metrics whose name is equal to MIQEventUtils.SERVER_AVAILABILITY_NAME are of
+                        // interest because these belong to a server
+                        if (availMetric.getMetric().getName().equals(MIQEventUtils.SERVER_AVAILABILITY_NAME)) {
+                            fireServerDown(feedId, availMetric.getResourceId());
+                        }
+                    })
+                    // TODO [lponce] to confirm with agent
+                    .concatMapIterable(availMetric -> toDown(keys, availMetric.getMetric().getProperties().get("id"),
+                            down));
+        }
+
+        // Set DOWN avail for the feed/tenant itself
+        List<Metric<AvailabilityType>> feedAvails = new ArrayList<>(keys.size());
+        for (CacheKey key : keys) {
+            feedAvails.addAll(toDown(Collections.singletonList(key), key.getMetricId(), down));
+        }
+        return availabilites.concatWith(Observable.from(feedAvails));
+    }
+
+    private List<Metric<AvailabilityType>> toDown(List<CacheKey> keys, String availMetricId,
+            List<DataPoint<AvailabilityType>> down) {
+        List<Metric<AvailabilityType>> result = new ArrayList<>(keys.size());
+        for (CacheKey key : keys) {
+            MetricId<AvailabilityType> metricId = new MetricId<>(key.getTenantId(), MetricType.AVAILABILITY,
+                    availMetricId);
+            result.add(new Metric<>(metricId, down));
+        }
+        return result;
+    }
+
+    // Trigger an AvailChange for the server as going down with the agent. The event is not tenant specific, it is
+    // fired once per server whatever the number of tenants of the feed.
+    private void fireServerDown(String feedId, String serverResourceId) {
+        miqEventUtils.handleResourceAvailChange(feedId, serverResourceId, MIQEventUtils.SERVER_AVAILABILITY_NAME,
+                AvailabilityType.DOWN.name());
+    }
+
+    private boolean initServices() {
+        // resolved once, don't lock every backfill on it
+        if (null != metricsService && null != inventoryService) {
+            return true;
+        }
+        synchronized (this) {
+            return lookupServices();
+        }
+    }
+
+    private boolean lookupServices() {
         try {
             InitialContext ctx = new InitialContext();
 
@@ -479,65 +1659,95 @@ public class BackfillCacheManager implements BackfillCache {
         return (null != metricsService && null != inventoryService);
     }
 
+    /**
+     * In expiration mode the entry expires after being idle for its max quiet period or, if the feed is not
+     * (yet) being checked, after the min ping period. The flush interval is added so that an entry can't expire
+     * while a ping received before its deadline is still waiting to be flushed.
+     */
+    private static long maxIdleMs(CacheValue value) {
+        return (value.hasBackfillJob() ? value.getMaxQuietPeriodMs() : PING_PERIOD_MIN_SECS * 1000L)
+                + PING_FLUSH_MS;
+    }
+
+    private void logPhi(CacheKey key) {
+        if (null != phiDetector) {
+            log.infof("Feed %s phi is %.2f, threshold %.2f", key,
+                    phiDetector.phi(key, System.currentTimeMillis()), PHI_THRESHOLD);
+        }
+    }
+
     private void cancelJob(CacheKey key) {
-        ScheduledFuture<?> job = jobMap.get(key);
-        if (null != job) {
-            job.cancel(true);
+        if (null == timingWheel) {
+            return;
         }
         try {
-            jobMap.remove(key);
+            timingWheel.cancel(key);
         } catch (Exception e) {
             log.errorf("Failed to cancel BackfillCheck job for %s", key);
         }
     }
 
+    /**
+     * Run when the timing wheel reports a passed deadline for the feed. The cache is consulted only at this point,
+     * never periodically.
+     */
     public class BackfillCheckJob implements Runnable {
 
         private CacheKey key;
-        private long maxQuietPeriodMs;
 
-        public BackfillCheckJob(CacheKey key, long maxQuietPeriodMs) {
+        public BackfillCheckJob(CacheKey key) {
             super();
             this.key = key;
-            this.maxQuietPeriodMs = maxQuietPeriodMs;
         }
 
         @Override
         public void run() {
-            CacheValue value = backfillCache.get(key);
+            CacheValue value = pingTable.get(key);
             if (null == value) {
                 log.warnf("Did not find expected cache entry. Canceling backfill job for %s", key);
                 cancelJob(key);
                 return;
             }
+            if (!value.hasBackfillJob()) {
+                log.debugf("Backfill job no longer active for %s", key);
+                return;
+            }
+            if (!isResponsible(key.getMetricId())) {
+                log.debugf("Feed %s is now handled by another member", key);
+                return;
+            }
 
-            long quietPeriodMs = System.currentTimeMillis() - value.lastUpdateTime;
-            if (quietPeriodMs <= maxQuietPeriodMs) {
+            long lastUpdateTime = value.getLastUpdateTime();
+            lastUpdateTime = Math.max(lastUpdateTime, feedKeys.pendingPingTime(key));
+            long quietPeriodMs = System.currentTimeMillis() - lastUpdateTime;
+            if (quietPeriodMs <= value.getMaxQuietPeriodMs()) {
+                // a ping was recorded after the deadline was set, wait for the new deadline
                 log.tracef("FEED IS REPORTING: %s", key);
+                timingWheel.schedule(key, lastUpdateTime + value.getMaxQuietPeriodMs());
                 return;
             }
 
             // backfill situation
             log.infof("Feed %s has not reported for %d ms and will be backfilled.", key, quietPeriodMs);
-            if (!initServices()) {
-                log.warnf("Could not perform backfill, not all services are available. Metrics=%s", metricsService);
-                return;
-            }
-            doBackfill(key, value);
+            logPhi(key);
+            admitBackfill(key);
         }
 
     }
 
+    /**
+     * Marshalled with {@link CacheKeyExternalizer}. The feedId is derived from the metricId on first use.
+     */
+    @SerializeWith(CacheKeyExternalizer.class)
     public static class CacheKey {
-        private String tenantId;
-        private String metricId;
+        private final String tenantId;
+        private final String metricId;
         private String feedId;
 
         public CacheKey(String tenantId, String metricId) {
             super();
             this.tenantId = tenantId;
             this.metricId = metricId;
-            this.feedId = metricId.substring(FEED_PREFIX.length());
         }
 
         public String getTenantId() {
@@ -549,7 +1759,13 @@ public class BackfillCacheManager implements BackfillCache {
         }
 
         public String getFeedId() {
-            return feedId;
+            // benign race, at worst the substring is computed more than once
+            String result = feedId;
+            if (null == result) {
+                result = metricId.substring(FEED_PREFIX.length());
+                feedId = result;
+            }
+            return result;
         }
 
         @Override
@@ -589,22 +1805,132 @@ public class BackfillCacheManager implements BackfillCache {
         }
     }
 
+    /**
+     * <p>
+     * Compact wire format for {@link CacheKey}, used when the backfill cache replicates:
+     * <pre>
+     * flags         1 byte, bit 0 = default tenant, bit 1 = metricId has the feed prefix
+     * [tenantId]    modified UTF-8, only if not the default tenant
+     * metricId      modified UTF-8, without the feed prefix if bit 1 is set
+     * </pre>
+     * Registered under {@link #CACHE_KEY_EXTERNALIZER_ID} by {@link BackfillCacheModuleLifecycle}, a
+     * default-tenant key for a 36 char feed id then marshals to 48 bytes, header and id included. A cache
+     * container whose class loader does not see this module (the server defined container loads with its own
+     * module class loader) falls back to {@link SerializeWith}, which writes the same fields behind class
+     * descriptors, about 300 bytes.</p>
+     */
+    public static class CacheKeyExternalizer implements AdvancedExternalizer<CacheKey> {
+        private static final long serialVersionUID = 1L;
+
+        private static final int DEFAULT_TENANT_FLAG = 0x01;
+        private static final int FEED_PREFIX_FLAG = 0x02;
+
+        @Override
+        public void writeObject(ObjectOutput output, CacheKey key) throws IOException {
+            boolean defaultTenant = DEFAULT_TENANT.equals(key.getTenantId());
+            boolean feedPrefix = key.getMetricId().startsWith(FEED_PREFIX);
+            output.writeByte((defaultTenant ? DEFAULT_TENANT_FLAG : 0) | (feedPrefix ? FEED_PREFIX_FLAG : 0));
+            if (!defaultTenant) {
+                output.writeUTF(key.getTenantId());
+            }
+            output.writeUTF(feedPrefix ? key.getFeedId() : key.getMetricId());
+        }
+
+        @Override
+        public CacheKey readObject(ObjectInput input) throws IOException, ClassNotFoundException {
+            int flags = input.readByte();
+            String tenantId = (0 != (flags & DEFAULT_TENANT_FLAG)) ? DEFAULT_TENANT : input.readUTF();
+            String id = input.readUTF();
+            return new CacheKey(tenantId, (0 != (flags & FEED_PREFIX_FLAG)) ? FEED_PREFIX + id : id);
+        }
+
+        @Override
+        public Set<Class<? extends CacheKey>> getTypeClasses() {
+            return Collections.singleton(CacheKey.class);
+        }
+
+        @Override
+        public Integer getId() {
+            return CACHE_KEY_EXTERNALIZER_ID;
+        }
+    }
+
+    /**
+     * Compact wire format for {@link CacheValue}: lastUpdateTime and maxQuietPeriodMs as varints, typically 6 + 3
+     * bytes instead of 16, then the varint count of tenants (a single 0 byte but for feed liveness entries) and the
+     * tenants as UTF strings. Registered under {@link #CACHE_VALUE_EXTERNALIZER_ID}, see
+     * {@link CacheKeyExternalizer}.
+     */
+    public static class CacheValueExternalizer implements AdvancedExternalizer<CacheValue> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void writeObject(ObjectOutput output, CacheValue value) throws IOException {
+            VarInts.writeVarLong(output, value.getLastUpdateTime());
+            VarInts.writeVarLong(output, Math.max(0L, value.getMaxQuietPeriodMs()));
+            String[] tenants = value.getTenants();
+            VarInts.writeVarLong(output, tenants.length);
+            for (String tenantId : tenants) {
+                output.writeUTF(tenantId);
+            }
+        }
+
+        @Override
+        public CacheValue readObject(ObjectInput input) throws IOException, ClassNotFoundException {
+            long lastUpdateTime = VarInts.readVarLong(input);
+            long maxQuietPeriodMs = VarInts.readVarLong(input);
+            int count = (int) VarInts.readVarLong(input);
+            String[] tenants = 0 == count ? CacheValue.NO_TENANTS : new String[count];
+            for (int i = 0; i < count; ++i) {
+                tenants[i] = input.readUTF();
+            }
+            return new CacheValue(lastUpdateTime, maxQuietPeriodMs, tenants);
+        }
+
+        @Override
+        public Set<Class<? extends CacheValue>> getTypeClasses() {
+            return Collections.singleton(CacheValue.class);
+        }
+
+        @Override
+        public Integer getId() {
+            return CACHE_VALUE_EXTERNALIZER_ID;
+        }
+    }
+
+    /**
+     * Immutable, a changed value is always a new instance. Stored instances can then be shared safely and
+     * compared for conditional replacement. Marshalled with {@link CacheValueExternalizer}.
+     */
+    @SerializeWith(CacheValueExternalizer.class)
     public static class CacheValue {
-        private long lastUpdateTime;
-        private long maxQuietPeriodMs; // <= 0 when there is no active timer
+        static final String[] NO_TENANTS = new String[0];
+
+        private final long lastUpdateTime;
+        private final long maxQuietPeriodMs; // <= 0 when there is no active timer
+        private final String[] tenants; // sorted, only for a distributed feed liveness entry
 
         public CacheValue() {
+            this(System.currentTimeMillis(), 0L);
+        }
+
+        public CacheValue(long lastUpdateTime, long maxQuietPeriodMs) {
+            this(lastUpdateTime, maxQuietPeriodMs, NO_TENANTS);
+        }
+
+        public CacheValue(long lastUpdateTime, long maxQuietPeriodMs, String[] tenants) {
             super();
-            this.lastUpdateTime = System.currentTimeMillis();
-            this.maxQuietPeriodMs = 0;
+            this.lastUpdateTime = lastUpdateTime;
+            this.maxQuietPeriodMs = maxQuietPeriodMs;
+            this.tenants = tenants;
         }
 
         public long getLastUpdateTime() {
             return lastUpdateTime;
         }
 
-        public void setLastUpdateTime(long lastUpdateTime) {
-            this.lastUpdateTime = lastUpdateTime;
+        public CacheValue withLastUpdateTime(long lastUpdateTime) {
+            return new CacheValue(lastUpdateTime, maxQuietPeriodMs, tenants);
         }
 
         public boolean hasBackfillJob() {
@@ -615,13 +1941,49 @@ public class BackfillCacheManager implements BackfillCache {
             return maxQuietPeriodMs;
         }
 
-        public void setMaxQuietPeriodMs(long maxQuietPeriodMs) {
-            this.maxQuietPeriodMs = maxQuietPeriodMs;
+        public CacheValue withMaxQuietPeriodMs(long maxQuietPeriodMs) {
+            return new CacheValue(lastUpdateTime, maxQuietPeriodMs, tenants);
+        }
+
+        /**
+         * @return the tenants of a feed liveness entry, the backfill targets of the feed, possibly empty. Must not
+         * be modified.
+         */
+        public String[] getTenants() {
+            return tenants;
+        }
+
+        public CacheValue withTenants(String[] tenants) {
+            return new CacheValue(lastUpdateTime, maxQuietPeriodMs, tenants);
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + (int) (lastUpdateTime ^ (lastUpdateTime >>> 32));
+            result = prime * result + (int) (maxQuietPeriodMs ^ (maxQuietPeriodMs >>> 32));
+            result = prime * result + Arrays.hashCode(tenants);
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null)
+                return false;
+            if (getClass() != obj.getClass())
+                return false;
+            CacheValue other = (CacheValue) obj;
+            return lastUpdateTime == other.lastUpdateTime && maxQuietPeriodMs == other.maxQuietPeriodMs
+                    && Arrays.equals(tenants, other.tenants);
         }
 
         @Override
         public String toString() {
-            return "CacheValue [lastUpdateTime=" + lastUpdateTime + ", maxQuietPeriodMs=" + maxQuietPeriodMs + "]";
+            return "CacheValue [lastUpdateTime=" + lastUpdateTime + ", maxQuietPeriodMs=" + maxQuietPeriodMs
+                    + (0 == tenants.length ? "" : ", tenants=" + Arrays.toString(tenants)) + "]";
         }
     }
 
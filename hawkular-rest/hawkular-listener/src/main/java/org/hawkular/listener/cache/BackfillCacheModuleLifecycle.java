@@ -0,0 +1,53 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+import java.util.Map;
+
+import org.hawkular.listener.cache.BackfillCacheManager.CacheKeyExternalizer;
+import org.hawkular.listener.cache.BackfillCacheManager.CacheValueExternalizer;
+import org.infinispan.commons.marshall.AdvancedExternalizer;
+import org.infinispan.configuration.global.GlobalConfiguration;
+import org.infinispan.factories.GlobalComponentRegistry;
+import org.infinispan.lifecycle.AbstractModuleLifecycle;
+import org.jboss.logging.Logger;
+
+/**
+ * Registers the backfill cache externalizers with every cache manager whose class loader finds this class as a
+ * {@link org.infinispan.lifecycle.ModuleLifecycle} service, so that replicated keys and values are marshalled
+ * behind their integer ids instead of a class descriptor. The ids are fixed, all members of a cluster must run the
+ * same externalizers.
+ */
+public class BackfillCacheModuleLifecycle extends AbstractModuleLifecycle {
+    private static final Logger log = Logger.getLogger(BackfillCacheModuleLifecycle.class);
+
+    @Override
+    public void cacheManagerStarting(GlobalComponentRegistry gcr, GlobalConfiguration globalCfg) {
+        Map<Integer, AdvancedExternalizer<?>> externalizers = globalCfg.serialization().advancedExternalizers();
+        register(externalizers, new CacheKeyExternalizer());
+        register(externalizers, new CacheValueExternalizer());
+    }
+
+    private static void register(Map<Integer, AdvancedExternalizer<?>> externalizers,
+            AdvancedExternalizer<?> externalizer) {
+        AdvancedExternalizer<?> existing = externalizers.putIfAbsent(externalizer.getId(), externalizer);
+        if (null != existing && existing.getClass() != externalizer.getClass()) {
+            log.warnf("Externalizer id %d is taken by %s, backfill cache entries use the class descriptor format",
+                    externalizer.getId(), existing.getClass().getName());
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hawkular.listener.cache.BackfillCacheManager.CacheKey;
+
+/**
+ * <p>
+ * Single-flight registry of feed backfills. A feed can be requested for backfill from several places at about the
+ * same time, e.g. a closed feed WebSocket and its ping deadline. Only the first request starts a backfill, the
+ * later ones join it, i.e. are dropped, while it is in flight.</p>
+ * <p>
+ * It also remembers when each feed was last backfilled, so that a forced backfill of a feed which is already DOWN,
+ * i.e. was backfilled within the suppression window and has not pinged since, can be ignored.</p>
+ * <p>
+ * A backfill that never terminates, e.g. on a Metrics write that hangs, is abandoned after the max in-flight time:
+ * a new backfill of the feed then starts, and the late completion of the abandoned one is ignored. Expired entries
+ * are removed by {@link #prune(long)}, called once per backfill batch.</p>
+ */
+public class BackfillRegistry {
+
+    private final ConcurrentHashMap<CacheKey, Long> inFlight = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<CacheKey, Long> backfilled = new ConcurrentHashMap<>();
+    private final long suppressionMs;
+    private final long maxInFlightMs;
+
+    private final AtomicLong deduplicated = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+    private final AtomicLong abandoned = new AtomicLong();
+
+    /**
+     * @param suppressionMs how long after its backfill a forced backfill of a silent feed is ignored, 0 for never
+     * @param maxInFlightMs how long a backfill may be in flight before it is abandoned
+     */
+    public BackfillRegistry(long suppressionMs, long maxInFlightMs) {
+        this.suppressionMs = suppressionMs;
+        this.maxInFlightMs = maxInFlightMs;
+    }
+
+    /**
+     * @param key the feed
+     * @param startTime the time of the backfill, i.e. of its DOWN data points
+     * @return true if the backfill must be performed, false if one is already in flight for the feed
+     */
+    public boolean start(CacheKey key, long startTime) {
+        Long current = inFlight.putIfAbsent(key, startTime);
+        if (null == current) {
+            return true;
+        }
+        if (startTime - current > maxInFlightMs && inFlight.replace(key, current, startTime)) {
+            abandoned.incrementAndGet();
+            return true;
+        }
+        deduplicated.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * @param key the feed
+     * @param startTime the start time of the backfill, as passed to {@link #start(CacheKey, long)}
+     * @param success true if the feed was backfilled, i.e. is now DOWN
+     */
+    public void finish(CacheKey key, long startTime, boolean success) {
+        // an abandoned backfill finishing late must not end its replacement
+        if (inFlight.remove(key, startTime) && success && suppressionMs > 0) {
+            backfilled.put(key, startTime);
+        }
+    }
+
+    /**
+     * Forget the feeds backfilled before the suppression window, whether or not they came back, and the backfills
+     * in flight for longer than the max in-flight time.
+     *
+     * @param now the current time
+     */
+    public void prune(long now) {
+        long expired = now - suppressionMs;
+        backfilled.values().removeIf(t -> t < expired);
+        long stale = now - maxInFlightMs;
+        inFlight.values().removeIf(t -> t < stale);
+    }
+
+    /**
+     * Count a request that was dropped because the same backfill is already pending elsewhere.
+     */
+    public void countDuplicate() {
+        deduplicated.incrementAndGet();
+    }
+
+    /**
+     * @param key the feed
+     * @param lastPingTime the time of the last known ping of the feed, 0 if unknown
+     * @return true if a forced backfill of the feed must be ignored, because the feed is already DOWN
+     */
+    public boolean suppress(CacheKey key, long lastPingTime) {
+        Long backfillTime = backfilled.get(key);
+        if (null == backfillTime) {
+            return false;
+        }
+        if (System.currentTimeMillis() - backfillTime > suppressionMs) {
+            backfilled.remove(key, backfillTime);
+            return false;
+        }
+        if (lastPingTime >= backfillTime) {
+            // it came back since
+            return false;
+        }
+        suppressed.incrementAndGet();
+        return true;
+    }
+
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    public long getDeduplicated() {
+        return deduplicated.get();
+    }
+
+    public long getSuppressed() {
+        return suppressed.get();
+    }
+
+    public long getAbandoned() {
+        return abandoned.get();
+    }
+
+    @Override
+    public String toString() {
+        return "BackfillRegistry [inFlight=" + getInFlight() + ", deduplicated=" + getDeduplicated()
+                + ", suppressed=" + getSuppressed() + ", abandoned=" + getAbandoned() + "]";
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+import org.jboss.logging.Logger;
+
+/**
+ * <p>
+ * Admission control for backfills. If a large share of the monitored feeds is found dead at about the same time
+ * the cause is almost always on the server side (a JMS broker stall, a GC pause, a partition) and not hundreds of
+ * dead agents. Backfilling them all would write storms into Metrics and Alerts and flood MIQ with false DOWN
+ * events.</p>
+ * <p>
+ * Feeds found due are counted over a sliding window, at least as long as the largest max quiet time so that all
+ * of the feeds silenced by one server side stall fall in the same window. When the count exceeds both the min
+ * number of feeds and the threshold share of the feeds that were monitored when the window started, a storm is
+ * declared. The due feeds, and all feeds found due until the grace period ends, are then held. After the grace
+ * period every held feed is checked again. Feeds that pinged in the meantime are dropped, the others are released
+ * at a bounded rate.</p>
+ * <p>
+ * The timer only schedules, the re-checks read the ping records and run on the executor, as do the releases.</p>
+ *
+ * @param <K> the feed key type
+ */
+public class BackfillStormGuard<K> {
+
+    private final Logger log = Logger.getLogger(BackfillStormGuard.class);
+
+    private final ScheduledExecutorService timer;
+    private final Executor executor;
+    private final IntSupplier monitoredFeeds;
+    private final Predicate<K> stillDue;
+    private final Consumer<K> backfill;
+
+    private final double threshold;
+    private final int minFeeds;
+    private final long minWindowMs;
+    private final LongSupplier maxQuietPeriodMs;
+    private final long graceMs;
+    private final long releaseIntervalMs;
+
+    // the time each feed in the window was found due, and the number of feeds monitored then, itself included
+    private final ArrayDeque<long[]> dueTimes = new ArrayDeque<>();
+    private Set<K> held = new LinkedHashSet<>();
+    private boolean storm = false;
+
+    private final ArrayDeque<K> releaseQueue = new ArrayDeque<>();
+    private ScheduledFuture<?> releaser;
+
+    /**
+     * @param timer schedules the re-check and the releases, never blocked
+     * @param executor runs the re-check and the releases, may block
+     * @param monitoredFeeds the number of feeds currently monitored (and not yet due)
+     * @param stillDue re-checks ping freshness, false if the feed pinged since it was found due
+     * @param backfill performs the backfill, must not block
+     * @param threshold the share of feeds due within the window that declares a storm
+     * @param minFeeds fewer due feeds than this never declare a storm
+     * @param minWindowMs the min sliding window for counting due feeds
+     * @param maxQuietPeriodMs the largest max quiet time of the monitored feeds, the window is at least this long
+     * @param graceMs how long feeds are held before their re-check
+     * @param releasePerSec the rate at which confirmed dead feeds are released after a storm
+     */
+    public BackfillStormGuard(ScheduledExecutorService timer, Executor executor, IntSupplier monitoredFeeds,
+            Predicate<K> stillDue, Consumer<K> backfill, double threshold, int minFeeds, long minWindowMs,
+            LongSupplier maxQuietPeriodMs, long graceMs, int releasePerSec) {
+        this.timer = timer;
+        this.executor = executor;
+        this.monitoredFeeds = monitoredFeeds;
+        this.stillDue = stillDue;
+        this.backfill = backfill;
+        this.threshold = threshold;
+        this.minFeeds = Math.max(1, minFeeds);
+        this.minWindowMs = minWindowMs;
+        this.maxQuietPeriodMs = maxQuietPeriodMs;
+        this.graceMs = graceMs;
+        this.releaseIntervalMs = Math.max(1L, 1000L / Math.max(1, releasePerSec));
+    }
+
+    /**
+     * Admit a feed found due for backfill. It is either backfilled now or held.
+     */
+    public void due(K key) {
+        long now = System.currentTimeMillis();
+        long windowMs = Math.max(minWindowMs, maxQuietPeriodMs.getAsLong());
+        int monitored = monitoredFeeds.getAsInt() + 1;
+        synchronized (this) {
+            dueTimes.addLast(new long[] { now, monitored });
+            while (dueTimes.peekFirst()[0] < now - windowMs) {
+                dueTimes.removeFirst();
+            }
+            int due = dueTimes.size();
+            // the feeds found due since the window started are no longer monitored, don't count them out
+            long windowStartFeeds = dueTimes.peekFirst()[1];
+
+            if (!storm && due >= minFeeds && due > threshold * windowStartFeeds) {
+                storm = true;
+                log.warnf("Backfill storm: %d of %d feeds due within %d ms. Holding backfills for %d ms.", due,
+                        windowStartFeeds, windowMs, graceMs);
+                timer.schedule(() -> executor.execute(this::recheck), graceMs, TimeUnit.MILLISECONDS);
+            }
+            if (storm) {
+                held.add(key);
+                return;
+            }
+        }
+        backfill.accept(key);
+    }
+
+    public synchronized boolean isStorm() {
+        return storm;
+    }
+
+    /**
+     * @return the number of feeds held or waiting to be released
+     */
+    public synchronized int size() {
+        return held.size() + releaseQueue.size();
+    }
+
+    private void recheck() {
+        Set<K> candidates;
+        synchronized (this) {
+            candidates = held;
+            held = new LinkedHashSet<>();
+            storm = false;
+            dueTimes.clear();
+        }
+
+        List<K> dead = new ArrayList<>();
+        for (K key : candidates) {
+            if (stillDue.test(key)) {
+                dead.add(key);
+            }
+        }
+        log.warnf("Backfill storm over: %d of %d held feeds resumed pinging, %d will be backfilled at most every "
+                + "%d ms", candidates.size() - dead.size(), candidates.size(), dead.size(), releaseIntervalMs);
+
+        synchronized (this) {
+            releaseQueue.addAll(dead);
+            if (null == releaser && !releaseQueue.isEmpty()) {
+                releaser = timer.scheduleAtFixedRate(this::releaseNext, 0L, releaseIntervalMs,
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * On the timer, only hands the next feed over to the executor.
+     */
+    private void releaseNext() {
+        K key;
+        synchronized (this) {
+            key = releaseQueue.pollFirst();
+            if (null == key) {
+                releaser.cancel(false);
+                releaser = null;
+                return;
+            }
+        }
+        try {
+            executor.execute(() -> release(key));
+        } catch (Exception e) {
+            log.errorf(e, "Failed to release backfill of %s", key);
+        }
+    }
+
+    private void release(K key) {
+        try {
+            if (stillDue.test(key)) {
+                backfill.accept(key);
+            }
+        } catch (Exception e) {
+            log.errorf(e, "Failed to release backfill of %s", key);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.hawkular.metrics.model.AvailabilityType;
+import org.hawkular.metrics.model.Metric;
+
+import rx.Observable;
+import rx.Subscriber;
+
+/**
+ * <p>
+ * Bounded, rate-limited stage for the backfill writes to Metrics. All backfills share it:</p>
+ * <ul>
+ * <li>at most <code>maxInFlight</code> write batches are in progress at any time,</li>
+ * <li>batches are admitted by a token bucket of <code>metricsPerSec</code> tokens, one token per metric,</li>
+ * <li>each backfill pulls its batches with <code>request(1)</code>, only after its previous batch was written.
+ * So a slow Metrics service slows the backfills down instead of piling up pending writes.</li>
+ * </ul>
+ * <p>
+ * The queue holds at most one batch per running backfill. A single thread drains it at a time, a write completing
+ * synchronously, and the pull of the next batch it triggers, only add work to the drain in progress, so the stack
+ * does not grow with the number of batches.</p>
+ */
+public class BackfillWriter {
+
+    private final Function<List<Metric<AvailabilityType>>, Observable<Void>> write;
+    private final ScheduledExecutorService timer;
+    private final int batchSize;
+    private final int maxInFlight;
+    private final double metricsPerSec;
+    private final double bucketCapacity;
+
+    private final ArrayDeque<Batch> queue = new ArrayDeque<>();
+    private int inFlight = 0;
+    private double tokens;
+    private long lastRefill;
+    private boolean drainScheduled = false;
+    // the drain requests not yet served, only the thread moving it from 0 drains
+    private final AtomicInteger drainRequests = new AtomicInteger();
+
+    /**
+     * @param write writes a batch of metrics
+     * @param timer used to wait for tokens
+     * @param batchSize the max number of metrics per write
+     * @param maxInFlight the max number of concurrent writes
+     * @param metricsPerSec the write rate, &lt;= 0 for no limit
+     */
+    public BackfillWriter(Function<List<Metric<AvailabilityType>>, Observable<Void>> write,
+            ScheduledExecutorService timer, int batchSize, int maxInFlight, double metricsPerSec) {
+        this.write = write;
+        this.timer = timer;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.metricsPerSec = metricsPerSec;
+        // allow a one second burst, and at least a full batch
+        this.bucketCapacity = Math.max(metricsPerSec, this.batchSize);
+        this.tokens = bucketCapacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * @param metrics the metrics to write
+     * @return completes when all of the metrics are written, or fails on the first failed batch. Nothing is
+     * written before it is subscribed, and unsubscribing stops the pulls and drops the queued batches.
+     */
+    public Observable<Void> write(Observable<Metric<AvailabilityType>> metrics) {
+        return Observable.unsafeCreate(subscriber -> {
+            BatchSubscriber batchSubscriber = new BatchSubscriber(subscriber);
+            subscriber.add(batchSubscriber);
+            // not subscribe(), its SafeSubscriber would unsubscribe the batches still queued when the upstream ends
+            metrics.buffer(batchSize).unsafeSubscribe(batchSubscriber);
+        });
+    }
+
+    /**
+     * @return the number of batches waiting for a write slot or tokens
+     */
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of batches being written
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    private void enqueue(Batch batch) {
+        synchronized (this) {
+            queue.addLast(batch);
+        }
+        drain();
+    }
+
+    private void drain() {
+        if (0 != drainRequests.getAndIncrement()) {
+            return;
+        }
+        int requests = 1;
+        do {
+            drainQueue();
+            requests = drainRequests.addAndGet(-requests);
+        } while (0 != requests);
+    }
+
+    private void drainQueue() {
+        while (true) {
+            Batch next;
+            synchronized (this) {
+                next = queue.peekFirst();
+                if (null != next && next.owner.isUnsubscribed()) {
+                    // the backfill was cancelled, don't spend a slot or tokens on it
+                    queue.pollFirst();
+                    continue;
+                }
+                if (null == next || inFlight >= maxInFlight) {
+                    return;
+                }
+                if (metricsPerSec > 0.0) {
+                    refill();
+                    double needed = Math.min(bucketCapacity, next.metrics.size());
+                    if (tokens < needed) {
+                        if (!drainScheduled) {
+                            drainScheduled = true;
+                            long waitMs = (long) Math.ceil((needed - tokens) * 1000.0 / metricsPerSec);
+                            timer.schedule(() -> {
+                                synchronized (this) {
+                                    drainScheduled = false;
+                                }
+                                drain();
+                            }, Math.max(1L, waitMs), TimeUnit.MILLISECONDS);
+                        }
+                        return;
+                    }
+                    tokens -= needed;
+                }
+                queue.pollFirst();
+                ++inFlight;
+            }
+            next.start();
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(bucketCapacity, tokens + (now - lastRefill) * metricsPerSec / 1_000_000_000.0);
+        lastRefill = now;
+    }
+
+    private void written() {
+        synchronized (this) {
+            --inFlight;
+        }
+        drain();
+    }
+
+    /**
+     * Pulls the batches of one backfill, one at a time.
+     */
+    private class BatchSubscriber extends Subscriber<List<Metric<AvailabilityType>>> {
+        private final Subscriber<? super Void> downstream;
+        private int outstanding = 0;
+        private boolean upstreamDone = false;
+        private boolean failed = false;
+
+        BatchSubscriber(Subscriber<? super Void> downstream) {
+            this.downstream = downstream;
+        }
+
+        @Override
+        public void onStart() {
+            request(1);
+        }
+
+        @Override
+        public void onNext(List<Metric<AvailabilityType>> metrics) {
+            synchronized (this) {
+                ++outstanding;
+            }
+            enqueue(new Batch(metrics, this));
+        }
+
+        @Override
+        public void onCompleted() {
+            boolean complete;
+            synchronized (this) {
+                upstreamDone = true;
+                complete = 0 == outstanding && !failed;
+            }
+            if (complete) {
+                downstream.onCompleted();
+            }
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            fail(e);
+        }
+
+        void batchWritten() {
+            boolean complete;
+            synchronized (this) {
+                --outstanding;
+                complete = upstreamDone && 0 == outstanding && !failed;
+            }
+            if (complete) {
+                downstream.onCompleted();
+            } else {
+                request(1);
+            }
+        }
+
+        void fail(Throwable e) {
+            synchronized (this) {
+                if (failed) {
+                    return;
+                }
+                failed = true;
+            }
+            unsubscribe();
+            downstream.onError(e);
+        }
+    }
+
+    private class Batch {
+        private final List<Metric<AvailabilityType>> metrics;
+        private final BatchSubscriber owner;
+
+        Batch(List<Metric<AvailabilityType>> metrics, BatchSubscriber owner) {
+            this.metrics = metrics;
+            this.owner = owner;
+        }
+
+        void start() {
+            Observable<Void> result;
+            try {
+                result = write.apply(metrics);
+            } catch (Exception e) {
+                written();
+                owner.fail(e);
+                return;
+            }
+            result.subscribe(new Subscriber<Void>() {
+                @Override
+                public void onCompleted() {
+                    written();
+                    owner.batchWritten();
+                }
+
+                @Override
+                public void onError(Throwable e) {
+                    written();
+                    owner.fail(e);
+                }
+
+                @Override
+                public void onNext(Void ignored) {
+                }
+            });
+        }
+    }
+}
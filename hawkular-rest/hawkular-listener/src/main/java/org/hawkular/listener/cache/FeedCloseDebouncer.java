@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * <p>
+ * Debounces feed connection closes. A closed feed is held for its reconnect window, a feed that reconnects and
+ * pings within the window must not be backfilled. The window of each feed is set when it closes, typically long
+ * enough for a reconnected agent to ping at its usual period. {@link #sweep(long)}, called periodically, hands all
+ * of the feeds whose window has passed to the consumer in one batch, along with their close times.</p>
+ * <p>
+ * A burst of closes, e.g. a fleet of agents being rolled or a load balancer dropping its connections, then costs
+ * one map entry per feed until the window passes, and the feeds still silent are backfilled together.</p>
+ *
+ * @param <K> the feed key type
+ */
+public class FeedCloseDebouncer<K> {
+
+    private static final class Close {
+        private final long closeTime;
+        private final long deadline;
+
+        Close(long closeTime, long deadline) {
+            this.closeTime = closeTime;
+            this.deadline = deadline;
+        }
+    }
+
+    private final ConcurrentHashMap<K, Close> closed = new ConcurrentHashMap<>();
+    private final ToLongFunction<K> windowMs;
+    private final BiConsumer<List<K>, List<Long>> expired;
+
+    /**
+     * @param windowMs the reconnect window of a feed, evaluated when it closes
+     * @param expired receives the feeds whose window has passed and their (latest) close times
+     */
+    public FeedCloseDebouncer(ToLongFunction<K> windowMs, BiConsumer<List<K>, List<Long>> expired) {
+        this.windowMs = windowMs;
+        this.expired = expired;
+    }
+
+    /**
+     * Record a close. A repeated close of a feed restarts its window.
+     */
+    public void closed(K key, long closeTime) {
+        Close close = new Close(closeTime, closeTime + windowMs.applyAsLong(key));
+        closed.merge(key, close, (c1, c2) -> c1.closeTime >= c2.closeTime ? c1 : c2);
+    }
+
+    /**
+     * @return the number of feeds within their reconnect window
+     */
+    public int size() {
+        return closed.size();
+    }
+
+    /**
+     * @param now the current time
+     * @return the number of feeds handed over
+     */
+    public int sweep(long now) {
+        List<K> keys = null;
+        List<Long> closeTimes = null;
+        for (Map.Entry<K, Close> e : closed.entrySet()) {
+            Close close = e.getValue();
+            if (close.deadline <= now && closed.remove(e.getKey(), close)) {
+                if (null == keys) {
+                    keys = new ArrayList<>();
+                    closeTimes = new ArrayList<>();
+                }
+                keys.add(e.getKey());
+                closeTimes.add(close.closeTime);
+            }
+        }
+        if (null == keys) {
+            return 0;
+        }
+        expired.accept(keys, closeTimes);
+        return keys.size();
+    }
+}
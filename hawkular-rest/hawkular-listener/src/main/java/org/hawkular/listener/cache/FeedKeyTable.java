@@ -0,0 +1,239 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hawkular.listener.cache.BackfillCacheManager.CacheKey;
+
+/**
+ * <p>
+ * Table of the feed ping keys handled by this member, indexed by tenantId and then metricId. Looking up an already
+ * known feed uses the Strings taken from the message as they are, so it allocates nothing: no composite lookup key,
+ * no substring, and the key hash is computed once, when the feed is first seen.</p>
+ * <p>
+ * Each entry also holds the feed's pending (not yet flushed) ping time. Recording a ping is a single atomic max on
+ * that slot, last value wins, and {@link #pendingPings()} collects all of the pending pings for a batched
+ * write. A ping stays pending until {@link #clearPendingPings(Map)} confirms it was written, so it is visible to
+ * the dead-feed checks at all times, either pending or in the cache.</p>
+ * <p>
+ * A secondary index, feedId -> keys, gives all of the tenant keys of a feed at once, e.g. for a forced backfill.
+ * It is only updated when a feed key is added or removed, never on a ping.</p>
+ * <p>
+ * With feed liveness a feed also has a liveness key, with the {@link BackfillCacheManager#FEED_LIVENESS_TENANT}
+ * marker as tenant, tracking the pings of all of its tenants. Its tenant keys are then only backfill targets.</p>
+ */
+public class FeedKeyTable {
+
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Entry>> tenants = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<CacheKey>> feeds = new ConcurrentHashMap<>();
+
+    static final class Entry {
+        private final CacheKey key;
+        private final AtomicLong pendingPingTime = new AtomicLong();
+
+        Entry(CacheKey key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * @return the canonical key for the feed ping metric, created on first use
+     */
+    public CacheKey intern(String tenantId, String metricId) {
+        return entry(tenantId, metricId).key;
+    }
+
+    /**
+     * Record a ping for the feed ping metric. Older than the currently pending ping is ignored.
+     *
+     * @return the canonical key for the feed ping metric
+     */
+    public CacheKey recordPing(String tenantId, String metricId, long pingTime) {
+        Entry entry = entry(tenantId, metricId);
+        AtomicLong pending = entry.pendingPingTime;
+        long current;
+        while ((current = pending.get()) < pingTime && !pending.compareAndSet(current, pingTime)) {
+            // retry
+        }
+        return entry.key;
+    }
+
+    /**
+     * @return the pending ping time for the key, or 0 if there is no pending ping
+     */
+    public long pendingPingTime(CacheKey key) {
+        Entry entry = find(key.getTenantId(), key.getMetricId());
+        return null == entry ? 0L : entry.pendingPingTime.get();
+    }
+
+    /**
+     * Return all pending pings, leaving them pending.
+     *
+     * @return the pending ping time per key, possibly empty
+     */
+    public Map<CacheKey, Long> pendingPings() {
+        Map<CacheKey, Long> result = new HashMap<>();
+        for (ConcurrentHashMap<String, Entry> metrics : tenants.values()) {
+            for (Entry entry : metrics.values()) {
+                long pingTime = entry.pendingPingTime.get();
+                if (0L != pingTime) {
+                    result.put(entry.key, pingTime);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Clear the pending pings once written. A ping recorded since, i.e. newer than the written one, stays pending
+     * for the next write, it is never lost.
+     *
+     * @param written the written ping time per key, as returned by {@link #pendingPings()}
+     */
+    public void clearPendingPings(Map<CacheKey, Long> written) {
+        for (Map.Entry<CacheKey, Long> ping : written.entrySet()) {
+            CacheKey key = ping.getKey();
+            Entry entry = find(key.getTenantId(), key.getMetricId());
+            if (null != entry) {
+                entry.pendingPingTime.compareAndSet(ping.getValue(), 0L);
+            }
+        }
+    }
+
+    /**
+     * @return the keys of the feed, one per tenant the feed pings for, possibly empty
+     */
+    public Set<CacheKey> keysOfFeed(String feedId) {
+        Set<CacheKey> keys = feeds.get(feedId);
+        return null == keys ? Collections.emptySet() : Collections.unmodifiableSet(keys);
+    }
+
+    /**
+     * @param feedId the feed
+     * @param feedLiveness true with feed liveness
+     * @param defaultTenantId the tenant assumed for a feed that pinged for no tenant, see
+     * {@link #tenantKeys(String, String)}
+     * @return the liveness keys of the feed: its liveness key with feed liveness, otherwise its tenant keys
+     */
+    public Collection<CacheKey> livenessKeys(String feedId, boolean feedLiveness, String defaultTenantId) {
+        return feedLiveness
+                ? Collections.singletonList(intern(BackfillCacheManager.FEED_LIVENESS_TENANT,
+                        BackfillCacheManager.FEED_PREFIX + feedId))
+                : tenantKeys(feedId, defaultTenantId);
+    }
+
+    /**
+     * @return the keys of the feed for every tenant it pings for, not its liveness key, or the default tenant's key
+     * (not interned) if the feed pinged for no tenant
+     */
+    public Collection<CacheKey> tenantKeys(String feedId, String defaultTenantId) {
+        List<CacheKey> keys = new ArrayList<>();
+        for (CacheKey key : keysOfFeed(feedId)) {
+            if (!BackfillCacheManager.FEED_LIVENESS_TENANT.equals(key.getTenantId())) {
+                keys.add(key);
+            }
+        }
+        return keys.isEmpty()
+                ? Collections.singletonList(new CacheKey(defaultTenantId, BackfillCacheManager.FEED_PREFIX + feedId))
+                : keys;
+    }
+
+    /**
+     * @return the keys to backfill for a liveness key: the feed's tenant keys for a feed liveness key, otherwise the
+     * key itself
+     */
+    public Collection<CacheKey> backfillTargets(CacheKey key, String defaultTenantId) {
+        return BackfillCacheManager.FEED_LIVENESS_TENANT.equals(key.getTenantId())
+                ? tenantKeys(key.getFeedId(), defaultTenantId)
+                : Collections.singletonList(key);
+    }
+
+    /**
+     * @param feedId the feed
+     * @param tenants known tenants of the feed, e.g. replicated with its liveness entry
+     * @return the tenants plus those the feed pinged for, sorted, or the given array itself when nothing is new
+     */
+    public String[] mergeTenants(String feedId, String[] tenants) {
+        Set<String> merged = null;
+        for (CacheKey tenantKey : keysOfFeed(feedId)) {
+            String tenantId = tenantKey.getTenantId();
+            if (!BackfillCacheManager.FEED_LIVENESS_TENANT.equals(tenantId)
+                    && !Arrays.asList(tenants).contains(tenantId)) {
+                if (null == merged) {
+                    merged = new TreeSet<>(Arrays.asList(tenants));
+                }
+                merged.add(tenantId);
+            }
+        }
+        return null == merged ? tenants : merged.toArray(new String[merged.size()]);
+    }
+
+    /**
+     * Forget a feed ping key, e.g. because its cache entry expired. A pending ping is dropped with it.
+     */
+    public void remove(CacheKey key) {
+        ConcurrentHashMap<String, Entry> metrics = tenants.get(key.getTenantId());
+        if (null != metrics && null != metrics.remove(key.getMetricId())) {
+            feeds.computeIfPresent(key.getFeedId(), (feedId, keys) -> {
+                keys.remove(key);
+                return keys.isEmpty() ? null : keys;
+            });
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (ConcurrentHashMap<String, Entry> metrics : tenants.values()) {
+            size += metrics.size();
+        }
+        return size;
+    }
+
+    private Entry find(String tenantId, String metricId) {
+        ConcurrentHashMap<String, Entry> metrics = tenants.get(tenantId);
+        return null == metrics ? null : metrics.get(metricId);
+    }
+
+    private Entry entry(String tenantId, String metricId) {
+        Entry entry = find(tenantId, metricId);
+        if (null != entry) {
+            return entry;
+        }
+        // slow path, first ping for the feed
+        return tenants.computeIfAbsent(tenantId, t -> new ConcurrentHashMap<>())
+                .computeIfAbsent(metricId, m -> {
+                    CacheKey key = new CacheKey(tenantId, metricId);
+                    feeds.compute(key.getFeedId(), (feedId, keys) -> {
+                        Set<CacheKey> result = null == keys ? ConcurrentHashMap.newKeySet() : keys;
+                        result.add(key);
+                        return result;
+                    });
+                    return new Entry(key);
+                });
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+/**
+ * A feed ping, i.e. an UP avail of a feed ping metric, for the bulk {@link BackfillCache} update.
+ */
+public class FeedPing {
+    private final String tenantId;
+    private final String metricId;
+
+    /**
+     * @param tenantId The tenant for the feed
+     * @param metricId The feed avail metricId
+     */
+    public FeedPing(String tenantId, String metricId) {
+        this.tenantId = tenantId;
+        this.metricId = metricId;
+    }
+
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    public String getMetricId() {
+        return metricId;
+    }
+
+    @Override
+    public String toString() {
+        return "FeedPing [tenantId=" + tenantId + ", metricId=" + metricId + "]";
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+import org.hawkular.listener.cache.BackfillCacheManager.CacheKey;
+import org.hawkular.listener.cache.BackfillCacheManager.CacheValue;
+import org.infinispan.Cache;
+
+/**
+ * {@link PingTable} stored in the Infinispan <code>backfill</code> cache, local or replicated. Optionally stores
+ * every entry with a max-idle, for expiration based detection.
+ */
+public class InfinispanPingTable implements PingTable {
+
+    private final Cache<CacheKey, CacheValue> cache;
+    private final ToLongFunction<CacheValue> maxIdleMs;
+
+    /**
+     * @param cache the backfill cache
+     * @param maxIdleMs the max-idle for a value, or null to store entries without expiration
+     */
+    public InfinispanPingTable(Cache<CacheKey, CacheValue> cache, ToLongFunction<CacheValue> maxIdleMs) {
+        this.cache = cache;
+        this.maxIdleMs = maxIdleMs;
+    }
+
+    @Override
+    public CacheValue get(CacheKey key) {
+        return cache.get(key);
+    }
+
+    @Override
+    public Map<CacheKey, CacheValue> getAll(Set<CacheKey> keys) {
+        return cache.getAdvancedCache().getAll(keys);
+    }
+
+    /**
+     * With expiration this is one putAll per distinct max-idle.
+     */
+    @Override
+    public void putAll(Map<CacheKey, CacheValue> values) {
+        if (values.isEmpty()) {
+            return;
+        }
+        if (null == maxIdleMs) {
+            cache.putAll(values);
+            return;
+        }
+
+        Map<Long, Map<CacheKey, CacheValue>> byMaxIdle = new HashMap<>();
+        for (Map.Entry<CacheKey, CacheValue> e : values.entrySet()) {
+            byMaxIdle.computeIfAbsent(maxIdleMs.applyAsLong(e.getValue()), k -> new HashMap<>())
+                    .put(e.getKey(), e.getValue());
+        }
+        for (Map.Entry<Long, Map<CacheKey, CacheValue>> e : byMaxIdle.entrySet()) {
+            cache.putAll(e.getValue(), -1, TimeUnit.MILLISECONDS, e.getKey(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * The read is local (the cache is local or replicated) and the write is a single conditional put or replace.
+     * Unlike {@link Cache#compute} this also carries the expiration metadata.
+     */
+    @Override
+    public CacheValue update(CacheKey key, Function<CacheValue, CacheValue> update) {
+        while (true) {
+            CacheValue current = cache.get(key);
+            CacheValue next = update.apply(current);
+            if (null == next) {
+                return null;
+            }
+            if (replace(key, current, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * One bulk read, then a conditional put or replace per key. Only a key updated concurrently is read again.
+     */
+    @Override
+    public Map<CacheKey, CacheValue> updateAll(Set<CacheKey> keys,
+            BiFunction<CacheKey, CacheValue, CacheValue> update) {
+        Map<CacheKey, CacheValue> current = getAll(keys);
+        Map<CacheKey, CacheValue> result = new HashMap<>(keys.size() * 2);
+        for (CacheKey key : keys) {
+            CacheValue value = current.get(key);
+            CacheValue next = update.apply(key, value);
+            if (null != next && !replace(key, value, next)) {
+                next = update(key, v -> update.apply(key, v));
+            }
+            if (null != next) {
+                result.put(key, next);
+            }
+        }
+        return result;
+    }
+
+    private boolean replace(CacheKey key, CacheValue current, CacheValue next) {
+        if (null == current) {
+            return null == (null != maxIdleMs
+                    ? cache.putIfAbsent(key, next, -1, TimeUnit.MILLISECONDS, maxIdleMs.applyAsLong(next),
+                            TimeUnit.MILLISECONDS)
+                    : cache.putIfAbsent(key, next));
+        }
+        return null != maxIdleMs
+                ? cache.replace(key, current, next, -1, TimeUnit.MILLISECONDS, maxIdleMs.applyAsLong(next),
+                        TimeUnit.MILLISECONDS)
+                : cache.replace(key, current, next);
+    }
+}
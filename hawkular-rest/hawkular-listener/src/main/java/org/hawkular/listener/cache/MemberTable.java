@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>
+ * Immutable snapshot of the cluster members used to assign ids (e.g. feed ping metric ids) to members. Ownership is
+ * computed with rendezvous (highest random weight) hashing: every member gets a pseudo-random score for the id and
+ * the member with the highest score owns it. When a member joins or leaves only the ids won or lost by that member
+ * move, about 1/N of them, and every id always has exactly one owner.</p>
+ * <p>
+ * A new table is built on each topology change and published by swapping a single reference, so ownership checks
+ * never need a lock. The published table is available through {@link #current()}, which lets message listeners
+ * drop the events of feeds owned by other members before any EJB invocation.</p>
+ */
+public final class MemberTable {
+
+    /**
+     * The table for a single, standalone member. It owns everything.
+     */
+    public static final MemberTable STANDALONE = new MemberTable(new String[] { "standalone" }, 0);
+
+    private static volatile MemberTable current = STANDALONE;
+
+    private final String[] members;
+    private final long[] seeds;
+    private final int localIndex;
+
+    private MemberTable(String[] members, int localIndex) {
+        this.members = members;
+        this.localIndex = localIndex;
+        this.seeds = new long[members.length];
+        for (int i = 0; i < members.length; ++i) {
+            seeds[i] = mix(members[i].hashCode() * 0x9E3779B97F4A7C15L);
+        }
+    }
+
+    /**
+     * @return the table published by the backfill cache, {@link #STANDALONE} until it processes a topology
+     */
+    public static MemberTable current() {
+        return current;
+    }
+
+    static void publish(MemberTable table) {
+        current = table;
+    }
+
+    /**
+     * @param members the current cluster members, in any order
+     * @param localMember the local member, must be in members
+     * @return the new table
+     * @throws IllegalArgumentException if localMember is not in members
+     */
+    public static MemberTable of(List<?> members, Object localMember) {
+        List<String> names = new ArrayList<>(members.size());
+        for (Object member : members) {
+            names.add(String.valueOf(member));
+        }
+        Collections.sort(names);
+        int localIndex = names.indexOf(String.valueOf(localMember));
+        if (-1 == localIndex) {
+            throw new IllegalArgumentException("Member " + localMember + " not found in " + members);
+        }
+        // seeds depend on the member name only, so a member keeps the ids it owns when other members come and go
+        return new MemberTable(names.toArray(new String[names.size()]), localIndex);
+    }
+
+    /**
+     * @param id the id to assign
+     * @return the index of the member owning the id, in the sorted member order
+     */
+    public int ownerOf(String id) {
+        if (1 == members.length) {
+            return 0;
+        }
+        long idHash = id.hashCode() * 0xC2B2AE3D27D4EB4FL;
+        int owner = 0;
+        long best = Long.MIN_VALUE;
+        for (int i = 0; i < seeds.length; ++i) {
+            long score = mix(idHash ^ seeds[i]);
+            if (score > best) {
+                best = score;
+                owner = i;
+            }
+        }
+        return owner;
+    }
+
+    /**
+     * @param id the id to assign
+     * @return true if the local member owns the id
+     */
+    public boolean isLocalOwner(String id) {
+        return ownerOf(id) == localIndex;
+    }
+
+    public int size() {
+        return members.length;
+    }
+
+    public int getLocalIndex() {
+        return localIndex;
+    }
+
+    public String getMember(int index) {
+        return members[index];
+    }
+
+    // murmur3 64-bit finalizer
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return "MemberTable [members=" + members.length + ", local=" + members[localIndex] + "]";
+    }
+}
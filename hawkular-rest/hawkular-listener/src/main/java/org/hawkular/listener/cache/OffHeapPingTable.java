@@ -0,0 +1,205 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.hawkular.listener.cache.BackfillCacheManager.CacheKey;
+import org.hawkular.listener.cache.BackfillCacheManager.CacheValue;
+
+/**
+ * <p>
+ * {@link PingTable} for standalone installs. Records are two primitive longs (lastUpdateTime, maxQuietPeriodMs)
+ * stored off-heap in a direct {@link ByteBuffer}, at a slot assigned to the key on first use. The slots are found
+ * through an open addressing index, a key array and a parallel <code>int</code> array probed linearly, so there is
+ * no map entry or boxed slot number per feed, and nothing for the GC to trace per record. Updates are constant
+ * time.</p>
+ * <p>
+ * A lastUpdateTime of 0 marks an empty slot. Access is serialized on the table, every operation is a few
+ * memory reads and writes. The buffer and the index double when they run out of room.</p>
+ */
+public class OffHeapPingTable implements PingTable {
+
+    private static final int RECORD_BYTES = 16;
+    private static final int LAST_UPDATE_TIME = 0;
+    private static final int MAX_QUIET_PERIOD_MS = 8;
+    private static final int NO_SLOT = -1;
+
+    private CacheKey[] indexKeys;
+    private int[] indexSlots;
+    private int indexMask;
+
+    private ByteBuffer records;
+    private int nextSlot = 0;
+
+    public OffHeapPingTable(int initialCapacity) {
+        int capacity = Math.max(16, initialCapacity);
+        records = ByteBuffer.allocateDirect(capacity * RECORD_BYTES);
+        // keep the index at most half full
+        int indexSize = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        indexKeys = new CacheKey[indexSize];
+        indexSlots = new int[indexSize];
+        indexMask = indexSize - 1;
+    }
+
+    @Override
+    public synchronized CacheValue get(CacheKey key) {
+        int slot = find(key);
+        return NO_SLOT == slot ? null : read(slot);
+    }
+
+    /**
+     * Reads the primitive record, no {@link CacheValue} is allocated.
+     */
+    @Override
+    public synchronized long lastUpdateTime(CacheKey key) {
+        int slot = find(key);
+        return NO_SLOT == slot ? 0L : records.getLong(slot * RECORD_BYTES + LAST_UPDATE_TIME);
+    }
+
+    @Override
+    public synchronized Map<CacheKey, CacheValue> getAll(Set<CacheKey> keys) {
+        Map<CacheKey, CacheValue> result = new HashMap<>(keys.size() * 2);
+        for (CacheKey key : keys) {
+            int slot = find(key);
+            CacheValue value = NO_SLOT == slot ? null : read(slot);
+            if (null != value) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void putAll(Map<CacheKey, CacheValue> values) {
+        for (Map.Entry<CacheKey, CacheValue> e : values.entrySet()) {
+            write(slot(e.getKey()), e.getValue());
+        }
+    }
+
+    @Override
+    public synchronized CacheValue update(CacheKey key, Function<CacheValue, CacheValue> update) {
+        int slot = find(key);
+        CacheValue next = update.apply(NO_SLOT == slot ? null : read(slot));
+        if (null != next) {
+            write(NO_SLOT == slot ? slot(key) : slot, next);
+        }
+        return next;
+    }
+
+    /**
+     * All of the updates under one lock.
+     */
+    @Override
+    public synchronized Map<CacheKey, CacheValue> updateAll(Set<CacheKey> keys,
+            BiFunction<CacheKey, CacheValue, CacheValue> update) {
+        Map<CacheKey, CacheValue> result = new HashMap<>(keys.size() * 2);
+        for (CacheKey key : keys) {
+            CacheValue next = update(key, current -> update.apply(key, current));
+            if (null != next) {
+                result.put(key, next);
+            }
+        }
+        return result;
+    }
+
+    public synchronized int size() {
+        return nextSlot;
+    }
+
+    private CacheValue read(int slot) {
+        int offset = slot * RECORD_BYTES;
+        long lastUpdateTime = records.getLong(offset + LAST_UPDATE_TIME);
+        return 0L == lastUpdateTime ? null
+                : new CacheValue(lastUpdateTime, records.getLong(offset + MAX_QUIET_PERIOD_MS));
+    }
+
+    private void write(int slot, CacheValue value) {
+        int offset = slot * RECORD_BYTES;
+        records.putLong(offset + LAST_UPDATE_TIME, value.getLastUpdateTime());
+        records.putLong(offset + MAX_QUIET_PERIOD_MS, value.getMaxQuietPeriodMs());
+    }
+
+    /**
+     * @return the slot of the key, or NO_SLOT
+     */
+    private int find(CacheKey key) {
+        for (int i = mix(key.hashCode()) & indexMask; null != indexKeys[i]; i = (i + 1) & indexMask) {
+            if (key.equals(indexKeys[i])) {
+                return indexSlots[i];
+            }
+        }
+        return NO_SLOT;
+    }
+
+    /**
+     * @return the slot of the key, assigned if needed
+     */
+    private int slot(CacheKey key) {
+        int slot = find(key);
+        if (NO_SLOT != slot) {
+            return slot;
+        }
+        if ((nextSlot + 1) * RECORD_BYTES > records.capacity()) {
+            ByteBuffer grown = ByteBuffer.allocateDirect(records.capacity() * 2);
+            records.clear();
+            grown.put(records);
+            records = grown;
+        }
+        if ((nextSlot + 1) * 2 > indexKeys.length) {
+            growIndex();
+        }
+        slot = nextSlot++;
+        insert(key, slot);
+        return slot;
+    }
+
+    private void insert(CacheKey key, int slot) {
+        int i = mix(key.hashCode()) & indexMask;
+        while (null != indexKeys[i]) {
+            i = (i + 1) & indexMask;
+        }
+        indexKeys[i] = key;
+        indexSlots[i] = slot;
+    }
+
+    private void growIndex() {
+        CacheKey[] oldKeys = indexKeys;
+        int[] oldSlots = indexSlots;
+        indexKeys = new CacheKey[oldKeys.length * 2];
+        indexSlots = new int[oldKeys.length * 2];
+        indexMask = indexKeys.length - 1;
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (null != oldKeys[i]) {
+                insert(oldKeys[i], oldSlots[i]);
+            }
+        }
+    }
+
+    /**
+     * Spread the hash bits over the index mask, the low bits of String hashes are poorly distributed.
+     */
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hawkular.listener.cache.BackfillCacheManager.CacheKey;
+
+/**
+ * <p>
+ * Phi-accrual failure detector for feed pings. For each feed the last inter-arrival times are kept in a fixed-size
+ * ring, and the suspicion level of the feed is</p>
+ * <pre>
+ *   phi(t) = -log10(P(next ping arrives later than t since the last ping))
+ * </pre>
+ * <p>
+ * with the inter-arrival times assumed normally distributed (logistic approximation of the normal CDF, as used by
+ * Akka and Cassandra). A phi of 8 means a 1 in 10^8 chance that a still-alive feed would be this late.</p>
+ * <p>
+ * Instead of evaluating phi periodically the threshold is turned into a deadline: the standardized value y* with
+ * phi(y*) = threshold is solved once, so the feed is suspected after mean + y* * stdDev of quiet time, plus an
+ * acceptable pause to absorb GC pauses and JMS hiccups. That deadline is stored as the feed's max quiet period and
+ * the rest of the backfill machinery is unchanged.</p>
+ * <p>
+ * The windows are local to the member handling the feed. After a hand-off the new owner keeps the replicated max
+ * quiet period until it has collected enough samples itself.</p>
+ */
+public class PhiAccrualDetector {
+
+    /**
+     * Fewer samples than this give no estimate, the caller falls back to the first-two-pings period.
+     */
+    static final int MIN_SAMPLES = 3;
+
+    private static final double LN_10 = Math.log(10.0);
+
+    private final ConcurrentHashMap<CacheKey, ArrivalWindow> windows = new ConcurrentHashMap<>();
+
+    private final double threshold;
+    private final int windowSize;
+    private final long minStdDevMs;
+    private final long acceptablePauseMs;
+    private final long maxIntervalMs;
+    private final long minIntervalMs;
+    private final double thresholdY;
+
+    /**
+     * @param threshold the phi above which a feed is considered dead
+     * @param windowSize the number of inter-arrival times kept per feed
+     * @param minStdDevMs lower bound for the standard deviation, very regular feeds would otherwise be suspected
+     * on the smallest delay
+     * @param acceptablePauseMs added to every deadline
+     * @param maxIntervalMs longer intervals are not regular pings (e.g. a restart) and are not sampled
+     * @param minIntervalMs arrivals closer than this to the previous one are the same ping
+     */
+    public PhiAccrualDetector(double threshold, int windowSize, long minStdDevMs, long acceptablePauseMs,
+            long maxIntervalMs, long minIntervalMs) {
+        if (threshold <= 0.0 || windowSize < MIN_SAMPLES) {
+            throw new IllegalArgumentException("threshold must be > 0 and windowSize >= " + MIN_SAMPLES);
+        }
+        this.threshold = threshold;
+        this.windowSize = windowSize;
+        this.minStdDevMs = Math.max(1L, minStdDevMs);
+        this.acceptablePauseMs = Math.max(0L, acceptablePauseMs);
+        this.maxIntervalMs = maxIntervalMs;
+        this.minIntervalMs = minIntervalMs;
+        this.thresholdY = solveY(threshold);
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Record a ping. Pings not newer than the previous one by more than the min interval are ignored.
+     */
+    public void recordArrival(CacheKey key, long arrivalTime) {
+        ArrivalWindow window = windows.get(key);
+        if (null == window) {
+            window = windows.computeIfAbsent(key, k -> new ArrivalWindow(windowSize));
+        }
+        window.add(arrivalTime, minIntervalMs, maxIntervalMs);
+    }
+
+    /**
+     * @return the max quiet time for the feed after which phi exceeds the threshold, or 0 if there are not yet
+     * enough samples for an estimate
+     */
+    public long maxQuietPeriodMs(CacheKey key) {
+        ArrivalWindow window = windows.get(key);
+        if (null == window) {
+            return 0L;
+        }
+        synchronized (window) {
+            if (window.count < MIN_SAMPLES) {
+                return 0L;
+            }
+            return (long) Math.ceil(window.mean() + thresholdY * stdDev(window)) + acceptablePauseMs;
+        }
+    }
+
+    /**
+     * @return the current phi of the feed, 0 if unknown or without enough samples
+     */
+    public double phi(CacheKey key, long now) {
+        ArrivalWindow window = windows.get(key);
+        if (null == window) {
+            return 0.0;
+        }
+        synchronized (window) {
+            if (window.count < MIN_SAMPLES) {
+                return 0.0;
+            }
+            long elapsed = now - window.lastArrival - acceptablePauseMs;
+            return phi((elapsed - window.mean()) / stdDev(window));
+        }
+    }
+
+    /**
+     * Forget the history of a feed, e.g. once it has been backfilled. The down time is not an inter-arrival time.
+     */
+    public void remove(CacheKey key) {
+        windows.remove(key);
+    }
+
+    public int size() {
+        return windows.size();
+    }
+
+    private double stdDev(ArrivalWindow window) {
+        return Math.max(minStdDevMs, Math.sqrt(window.variance()));
+    }
+
+    // -log10(e / (1 + e)) with e = exp(-a), written as log10(1 + exp(a)) so that neither a ping well before the mean
+    // (e overflows) nor a long silence (e underflows) gives NaN or infinity
+    static double phi(double y) {
+        double a = y * (1.5976 + 0.070566 * y * y);
+        return a > 30.0 ? a / LN_10 : Math.log1p(Math.exp(a)) / LN_10;
+    }
+
+    // phi is increasing in y, bisect
+    static double solveY(double threshold) {
+        double low = 0.0;
+        double high = 64.0;
+        for (int i = 0; i < 100; ++i) {
+            double mid = (low + high) / 2.0;
+            if (phi(mid) < threshold) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * Ring of the latest inter-arrival times, in ms, with running sums for O(1) mean and variance.
+     */
+    private static final class ArrivalWindow {
+        private final int[] intervals;
+        private int next;
+        private int count;
+        private long sum;
+        private long sumOfSquares;
+        private long lastArrival;
+
+        ArrivalWindow(int size) {
+            intervals = new int[size];
+        }
+
+        synchronized void add(long arrivalTime, long minIntervalMs, long maxIntervalMs) {
+            if (arrivalTime <= lastArrival + minIntervalMs) {
+                return;
+            }
+            long interval = arrivalTime - lastArrival;
+            boolean first = 0L == lastArrival;
+            lastArrival = arrivalTime;
+            if (first || interval > maxIntervalMs) {
+                return;
+            }
+
+            if (count == intervals.length) {
+                long evicted = intervals[next];
+                sum -= evicted;
+                sumOfSquares -= evicted * evicted;
+            } else {
+                ++count;
+            }
+            intervals[next] = (int) interval;
+            sum += interval;
+            sumOfSquares += interval * interval;
+            next = (next + 1) % intervals.length;
+        }
+
+        double mean() {
+            return (double) sum / count;
+        }
+
+        double variance() {
+            double mean = mean();
+            return Math.max(0.0, (double) sumOfSquares / count - mean * mean);
+        }
+    }
+}
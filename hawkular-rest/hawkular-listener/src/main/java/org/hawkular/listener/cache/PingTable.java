@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.hawkular.listener.cache.BackfillCacheManager.CacheKey;
+import org.hawkular.listener.cache.BackfillCacheManager.CacheValue;
+
+/**
+ * Storage of the feed ping records, (tenant, feed) -> (lastUpdateTime, maxQuietPeriodMs), used by
+ * {@link BackfillCacheManager}.
+ */
+public interface PingTable {
+
+    /**
+     * @return the current value, or null if the key is not stored
+     */
+    CacheValue get(CacheKey key);
+
+    /**
+     * @return the lastUpdateTime of the key, or 0 if the key is not stored
+     */
+    default long lastUpdateTime(CacheKey key) {
+        CacheValue value = get(key);
+        return null == value ? 0L : value.getLastUpdateTime();
+    }
+
+    /**
+     * @return the stored values for the keys, absent keys are not in the result
+     */
+    Map<CacheKey, CacheValue> getAll(Set<CacheKey> keys);
+
+    /**
+     * Store all of the values in one batch.
+     */
+    void putAll(Map<CacheKey, CacheValue> values);
+
+    /**
+     * Atomically update a single entry. A concurrent update is never lost, the update function is re-evaluated
+     * against the winning value, so it must be free of side effects.
+     *
+     * @param key the key
+     * @param update returns the new value given the current one (null if absent). Returning null leaves the
+     * entry unchanged.
+     * @return the stored value, or null if nothing was stored
+     */
+    CacheValue update(CacheKey key, Function<CacheValue, CacheValue> update);
+
+    /**
+     * Atomically update each of the entries, as {@link #update(CacheKey, Function)} does, typically with a single
+     * bulk read. A concurrent update of an entry is never lost, its update function is re-evaluated against the
+     * winning value, so it must be free of side effects.
+     *
+     * @param keys the keys
+     * @param update returns the new value of a key given its current one (null if absent). Returning null leaves
+     * the entry unchanged.
+     * @return the stored values, the entries left unchanged are not in the result
+     */
+    default Map<CacheKey, CacheValue> updateAll(Set<CacheKey> keys,
+            BiFunction<CacheKey, CacheValue, CacheValue> update) {
+        Map<CacheKey, CacheValue> result = new HashMap<>(keys.size() * 2);
+        for (CacheKey key : keys) {
+            CacheValue value = update(key, current -> update.apply(key, current));
+            if (null != value) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+}
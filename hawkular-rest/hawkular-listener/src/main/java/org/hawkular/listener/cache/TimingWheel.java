@@ -0,0 +1,242 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * A hierarchical timing wheel holding one deadline per key. Scheduling, rescheduling and cancelling a key are O(1),
+ * so a feed ping only needs to move the feed's timeout to a new slot. Nothing is executed for a key until its
+ * deadline really passes.</p>
+ * <p>
+ * The wheel has {@link #LEVELS} levels of {@link #WHEEL_SIZE} slots each. A slot on level 0 spans one tick, a slot
+ * on level n spans WHEEL_SIZE^n ticks. Timeouts too far in the future for level 0 are parked on a higher level and
+ * cascaded down as the wheel turns. Deadlines beyond the range of the top level are parked in its last slot and
+ * re-parked until they come into range.</p>
+ * <p>
+ * The wheel is not driven by its own thread. The owner calls {@link #advance(long)} periodically (typically every
+ * tick) from a single thread. Expired keys are collected under the wheel lock and the {@link ExpirationHandler} is
+ * invoked outside of it, so handlers may safely reschedule.</p>
+ *
+ * @param <K> the key type, must implement equals/hashCode
+ */
+public class TimingWheel<K> {
+
+    /**
+     * Callback for keys whose deadline has passed.
+     */
+    public interface ExpirationHandler<K> {
+        void onExpiration(K key, long deadline);
+    }
+
+    static final int WHEEL_BITS = 6;
+    static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    static final int LEVELS = 4;
+
+    private final long tickMs;
+    private final long startTime;
+    private final ExpirationHandler<K> handler;
+
+    // wheels[level][slot] is the sentinel of a circular doubly-linked list of timeouts
+    private final Timeout<K>[][] wheels;
+    private final Map<K, Timeout<K>> timeouts = new HashMap<>();
+
+    // the last tick that has been processed
+    private long currentTick;
+
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long tickMs, long startTime, ExpirationHandler<K> handler) {
+        if (tickMs <= 0) {
+            throw new IllegalArgumentException("tickMs must be > 0");
+        }
+        this.tickMs = tickMs;
+        this.startTime = startTime;
+        this.handler = handler;
+        this.currentTick = 0;
+
+        wheels = new Timeout[LEVELS][WHEEL_SIZE];
+        for (int level = 0; level < LEVELS; ++level) {
+            for (int slot = 0; slot < WHEEL_SIZE; ++slot) {
+                Timeout<K> sentinel = new Timeout<>(null, 0L, 0L);
+                sentinel.prev = sentinel;
+                sentinel.next = sentinel;
+                wheels[level][slot] = sentinel;
+            }
+        }
+    }
+
+    public long getTickMs() {
+        return tickMs;
+    }
+
+    /**
+     * Schedule, or reschedule, the deadline for the key. Any previous deadline for the key is replaced.
+     *
+     * @param key the key
+     * @param deadline the absolute time, in ms, after which the key expires
+     */
+    public synchronized void schedule(K key, long deadline) {
+        Timeout<K> timeout = timeouts.get(key);
+        if (null == timeout) {
+            timeout = new Timeout<>(key, deadline, toTick(deadline));
+            timeouts.put(key, timeout);
+        } else {
+            unlink(timeout);
+            timeout.deadline = deadline;
+            timeout.expirationTick = toTick(deadline);
+        }
+        // the current slot has already been processed, the earliest we can fire is the next tick
+        place(timeout, currentTick + 1);
+    }
+
+    /**
+     * @param key the key
+     * @return true if a deadline was removed for the key
+     */
+    public synchronized boolean cancel(K key) {
+        Timeout<K> timeout = timeouts.remove(key);
+        if (null == timeout) {
+            return false;
+        }
+        unlink(timeout);
+        return true;
+    }
+
+    public synchronized boolean isScheduled(K key) {
+        return timeouts.containsKey(key);
+    }
+
+    /**
+     * @return the number of scheduled keys
+     */
+    public synchronized int size() {
+        return timeouts.size();
+    }
+
+    /**
+     * Turn the wheel up to the given time, firing every key whose deadline is <= now.
+     *
+     * @param now the current time in ms
+     * @return the number of expired keys
+     */
+    public int advance(long now) {
+        List<Timeout<K>> expired = null;
+
+        synchronized (this) {
+            long targetTick = (now - startTime) / tickMs;
+            while (currentTick < targetTick) {
+                ++currentTick;
+                cascade(1, currentTick);
+
+                Timeout<K> sentinel = wheels[0][(int) (currentTick & WHEEL_MASK)];
+                for (Timeout<K> t = sentinel.next; t != sentinel;) {
+                    Timeout<K> next = t.next;
+                    unlink(t);
+                    if (t.expirationTick <= currentTick) {
+                        timeouts.remove(t.key);
+                        if (null == expired) {
+                            expired = new ArrayList<>();
+                        }
+                        expired.add(t);
+                    } else {
+                        place(t, currentTick + 1);
+                    }
+                    t = next;
+                }
+            }
+        }
+
+        if (null == expired) {
+            return 0;
+        }
+        for (Timeout<K> t : expired) {
+            handler.onExpiration(t.key, t.deadline);
+        }
+        return expired.size();
+    }
+
+    // When the lower level wraps, move the current slot of this level down. Higher levels are cascaded first.
+    private void cascade(int level, long tick) {
+        if (level >= LEVELS || 0 != (tick & ((1L << (WHEEL_BITS * level)) - 1))) {
+            return;
+        }
+        cascade(level + 1, tick);
+
+        Timeout<K> sentinel = wheels[level][(int) ((tick >>> (WHEEL_BITS * level)) & WHEEL_MASK)];
+        for (Timeout<K> t = sentinel.next; t != sentinel;) {
+            Timeout<K> next = t.next;
+            unlink(t);
+            // cascading happens before the current level 0 slot is processed, so it may still land there
+            place(t, currentTick);
+            t = next;
+        }
+    }
+
+    private long toTick(long deadline) {
+        // round up, a key must never fire before its deadline
+        long ticks = (deadline - startTime + tickMs - 1) / tickMs;
+        return ticks < 0 ? 0 : ticks;
+    }
+
+    private void place(Timeout<K> t, long earliestTick) {
+        long tick = Math.max(t.expirationTick, earliestTick);
+        long delta = tick - currentTick;
+
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (WHEEL_BITS * (level + 1)))) {
+            ++level;
+        }
+        if (level == LEVELS - 1 && delta >= (1L << (WHEEL_BITS * LEVELS))) {
+            // out of range, park it as far out as possible and re-place it when it cascades
+            tick = currentTick + (1L << (WHEEL_BITS * LEVELS)) - 1;
+        }
+
+        Timeout<K> sentinel = wheels[level][(int) ((tick >>> (WHEEL_BITS * level)) & WHEEL_MASK)];
+        t.prev = sentinel.prev;
+        t.next = sentinel;
+        sentinel.prev.next = t;
+        sentinel.prev = t;
+    }
+
+    private static <K> void unlink(Timeout<K> t) {
+        if (null != t.next) {
+            t.prev.next = t.next;
+            t.next.prev = t.prev;
+            t.prev = null;
+            t.next = null;
+        }
+    }
+
+    private static class Timeout<K> {
+        private final K key;
+        private long deadline;
+        private long expirationTick;
+        private Timeout<K> prev;
+        private Timeout<K> next;
+
+        Timeout(K key, long deadline, long expirationTick) {
+            this.key = key;
+            this.deadline = deadline;
+            this.expirationTick = expirationTick;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.bus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.hawkular.listener.cache.BackfillCacheManager;
+import org.hawkular.listener.cache.FeedPing;
+import org.junit.Test;
+
+public class AvailPingDecoderTest {
+
+    private static final String FEED_1 = BackfillCacheManager.FEED_PREFIX + "feed-1";
+    private static final String FEED_2 = BackfillCacheManager.FEED_PREFIX + "feed-2";
+
+    private static String avail(String tenantId, String id, String avail) {
+        return "{\"tenantId\":\"" + tenantId + "\",\"id\":\"" + id + "\",\"timestamp\":1490000000000,\"avail\":\""
+                + avail + "\"}";
+    }
+
+    private static String message(String... avails) {
+        return "{\"availData\":{\"data\":[" + String.join(",", avails) + "]}}";
+    }
+
+    private static void assertPing(String tenantId, String metricId, FeedPing ping) {
+        assertEquals(tenantId, ping.getTenantId());
+        assertEquals(metricId, ping.getMetricId());
+    }
+
+    @Test
+    public void testOnlyPingsAreDecoded() throws IOException {
+        List<FeedPing> pings = AvailPingDecoder.decode(message(
+                avail("t1", FEED_1, "UP"),
+                avail("t1", "some-server-avail", "UP"),
+                avail("t1", FEED_2, "DOWN"),
+                avail("t2", FEED_2, "UP"),
+                avail("t1", FEED_1 + "-suffix", "UNKNOWN")));
+        assertEquals(2, pings.size());
+        assertPing("t1", FEED_1, pings.get(0));
+        assertPing("t2", FEED_2, pings.get(1));
+    }
+
+    @Test
+    public void testFieldsInAnyOrder() throws IOException {
+        List<FeedPing> pings = AvailPingDecoder.decode(message(
+                "{\"avail\":\"UP\",\"timestamp\":1,\"id\":\"" + FEED_1 + "\",\"tenantId\":\"t1\"}",
+                "{\"id\":\"" + FEED_2 + "\",\"avail\":\"UP\",\"tenantId\":\"t2\",\"timestamp\":1}",
+                "{\"avail\":\"DOWN\",\"id\":\"" + FEED_1 + "\",\"tenantId\":\"t3\"}"));
+        assertEquals(2, pings.size());
+        assertPing("t1", FEED_1, pings.get(0));
+        assertPing("t2", FEED_2, pings.get(1));
+    }
+
+    @Test
+    public void testUnknownFieldsAreSkippedWithTheirChildren() throws IOException {
+        String json = "{\"messageId\":{\"id\":\"x\"},\"headers\":{\"a\":[1,{\"availData\":{}}]},"
+                + "\"availData\":{\"count\":3,\"tags\":{\"data\":[]},\"data\":["
+                + "{\"tenantId\":\"t1\",\"extra\":{\"id\":\"nested\",\"avail\":[\"DOWN\"]},\"id\":\"" + FEED_1
+                + "\",\"avail\":\"UP\",\"more\":[[],{}]}"
+                + "],\"trailer\":null},\"correlationId\":\"c\"}";
+        List<FeedPing> pings = AvailPingDecoder.decode(json);
+        assertEquals(1, pings.size());
+        assertPing("t1", FEED_1, pings.get(0));
+    }
+
+    @Test
+    public void testEscapedStrings() throws IOException {
+        String escapedFeed = "\\u0068" + FEED_1.substring(1);
+        List<FeedPing> pings = AvailPingDecoder.decode(message(avail("t\\\"1", escapedFeed, "\\u0055P")));
+        assertEquals(1, pings.size());
+        assertPing("t\"1", FEED_1, pings.get(0));
+    }
+
+    @Test
+    public void testIncompleteOrMistypedDataPoints() throws IOException {
+        List<FeedPing> pings = AvailPingDecoder.decode(message(
+                "{\"id\":\"" + FEED_1 + "\",\"avail\":\"UP\"}",
+                "{\"tenantId\":\"t1\",\"avail\":\"UP\"}",
+                "{\"tenantId\":\"t1\",\"id\":42,\"avail\":\"UP\"}",
+                "{\"tenantId\":\"t1\",\"id\":[\"" + FEED_1 + "\"],\"avail\":\"UP\"}",
+                "{\"tenantId\":\"t1\",\"id\":\"" + FEED_1 + "\",\"avail\":{\"value\":\"UP\"},\"x\":1}",
+                "{\"tenantId\":\"t1\",\"id\":\"" + FEED_1 + "\"}",
+                // still in sync after the mistyped values
+                avail("t2", FEED_2, "UP")));
+        assertEquals(1, pings.size());
+        assertPing("t2", FEED_2, pings.get(0));
+    }
+
+    @Test
+    public void testNonObjectDataPointEndsTheData() throws IOException {
+        List<FeedPing> pings = AvailPingDecoder.decode("{\"availData\":{\"data\":["
+                + avail("t1", FEED_1, "UP") + ",[1,2],\"x\"," + avail("t1", FEED_2, "UP") + "]},\"after\":1}");
+        assertEquals(1, pings.size());
+        assertPing("t1", FEED_1, pings.get(0));
+    }
+
+    @Test
+    public void testNoPings() throws IOException {
+        assertNull(AvailPingDecoder.decode(message()));
+        assertNull(AvailPingDecoder.decode(message(avail("t1", "some-server-avail", "UP"))));
+        assertNull(AvailPingDecoder.decode("{}"));
+        assertNull(AvailPingDecoder.decode("{\"availData\":null}"));
+        assertNull(AvailPingDecoder.decode("[]"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testMalformed() throws IOException {
+        AvailPingDecoder.decode("{\"availData\":{\"data\":[{\"tenantId\":");
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class AvailMetricIndexTest {
+
+    private static final String FEED = "feed-1";
+
+    // loads are queued until run by the test
+    private final ArrayDeque<Runnable> loads = new ArrayDeque<>();
+    private final AtomicInteger inventoryReads = new AtomicInteger();
+    // run while a load reads inventory
+    private Runnable duringRead = () -> { };
+
+    private final AvailMetricIndex index = new AvailMetricIndex(feedId -> {
+        inventoryReads.incrementAndGet();
+        duringRead.run();
+        return Collections.emptyList();
+    }, loads::add, 60000L);
+
+    @Test
+    public void testWarmLoadsOnAMissOnly() {
+        assertNull(index.lookup(FEED));
+        index.warm(FEED);
+        index.warm(FEED);
+        assertEquals(1, loads.size());
+
+        loads.poll().run();
+        assertNotNull(index.lookup(FEED));
+        index.warm(FEED);
+        assertEquals(0, loads.size());
+        assertEquals(1, inventoryReads.get());
+        assertEquals(1L, index.getHits());
+        assertEquals(1L, index.getMisses());
+    }
+
+    @Test
+    public void testInvalidate() {
+        index.warm(FEED);
+        loads.poll().run();
+        index.invalidate(FEED);
+        assertNull(index.lookup(FEED));
+        assertEquals(0, index.size());
+
+        index.warm(FEED);
+        assertEquals(1, loads.size());
+    }
+
+    @Test
+    public void testLoadInProgressIsDiscardedOnInvalidate() {
+        duringRead = () -> index.invalidate(FEED);
+        index.warm(FEED);
+        loads.poll().run();
+        assertNull(index.lookup(FEED));
+        assertEquals(0, index.size());
+
+        // the next warm loads again, and stores
+        duringRead = () -> { };
+        index.warm(FEED);
+        loads.poll().run();
+        assertNotNull(index.lookup(FEED));
+    }
+
+    @Test
+    public void testStaleLoadDoesNotOverwriteTheLoadStartedAfterTheInvalidate() {
+        index.warm(FEED);
+        Runnable stale = loads.poll();
+        index.invalidate(FEED);
+        index.warm(FEED);
+        Runnable fresh = loads.poll();
+
+        fresh.run();
+        AvailMetricIndex.AvailMetrics entry = index.lookup(FEED);
+        assertNotNull(entry);
+        stale.run();
+        assertEquals(entry, index.lookup(FEED));
+    }
+
+    @Test
+    public void testEntryOlderThanTheTtlIsNotUsed() {
+        AvailMetricIndex noTtl = new AvailMetricIndex(feedId -> Collections.emptyList(), Runnable::run, -1L);
+        noTtl.warm(FEED);
+        assertEquals(1, noTtl.size());
+        assertNull(noTtl.lookup(FEED));
+    }
+
+    @Test
+    public void testRejectedLoadIsRetried() {
+        AtomicInteger attempts = new AtomicInteger();
+        AvailMetricIndex rejecting = new AvailMetricIndex(feedId -> Collections.emptyList(), command -> {
+            attempts.incrementAndGet();
+            throw new RejectedExecutionException();
+        }, 60000L);
+        rejecting.warm(FEED);
+        rejecting.warm(FEED);
+        assertEquals(2, attempts.get());
+        assertEquals(0, rejecting.size());
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class BackfillAggregatorTest {
+
+    private static final long LONG_WINDOW_MS = 60000L;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+
+    @After
+    public void after() {
+        timer.shutdownNow();
+    }
+
+    @Test
+    public void testFeedsAreBatchedUntilTheEndOfTheWindow() throws Exception {
+        CountDownLatch drained = new CountDownLatch(1);
+        BackfillAggregator<String> aggregator = new BackfillAggregator<>(timer, Runnable::run, 100L, 10, batch -> {
+            batches.add(batch);
+            drained.countDown();
+        });
+
+        aggregator.add("feed-1");
+        aggregator.add("feed-2");
+        aggregator.add("feed-3");
+        assertTrue(batches.isEmpty());
+        assertEquals(3, aggregator.size());
+
+        assertTrue(drained.await(10L, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(Arrays.asList("feed-1", "feed-2", "feed-3")), batches);
+        assertEquals(0, aggregator.size());
+    }
+
+    @Test
+    public void testFullBatchIsHandedOverEarly() {
+        BackfillAggregator<String> aggregator = new BackfillAggregator<>(timer, Runnable::run, LONG_WINDOW_MS, 2,
+                batches::add);
+
+        aggregator.add("feed-1");
+        aggregator.add("feed-2");
+        aggregator.add("feed-3");
+        assertEquals(Collections.singletonList(Arrays.asList("feed-1", "feed-2")), batches);
+        assertEquals(1, aggregator.size());
+
+        aggregator.flush();
+        assertEquals(Arrays.asList(Arrays.asList("feed-1", "feed-2"), Collections.singletonList("feed-3")), batches);
+    }
+
+    @Test
+    public void testRepeatedAddIsBackfilledOnce() {
+        BackfillAggregator<String> aggregator = new BackfillAggregator<>(timer, Runnable::run, LONG_WINDOW_MS, 10,
+                batches::add);
+
+        assertTrue(aggregator.add("feed-1"));
+        assertFalse(aggregator.add("feed-1"));
+        assertEquals(1, aggregator.size());
+
+        aggregator.flush();
+        assertEquals(Collections.singletonList(Collections.singletonList("feed-1")), batches);
+        // a later window backfills it again
+        assertTrue(aggregator.add("feed-1"));
+    }
+
+    @Test
+    public void testCloseDrainsThePendingFeeds() {
+        // the executor would not run anything anymore
+        List<Runnable> submitted = new ArrayList<>();
+        BackfillAggregator<String> aggregator = new BackfillAggregator<>(timer, submitted::add, LONG_WINDOW_MS, 10,
+                batches::add);
+
+        aggregator.add("feed-1");
+        aggregator.add("feed-2");
+        aggregator.close();
+        assertEquals(Collections.singletonList(Arrays.asList("feed-1", "feed-2")), batches);
+        assertTrue(submitted.isEmpty());
+        assertEquals(0, aggregator.size());
+
+        // not held for a window that would never end
+        aggregator.add("feed-3");
+        assertEquals(0, aggregator.size());
+        assertEquals(1, submitted.size());
+        submitted.get(0).run();
+        assertEquals(Collections.singletonList("feed-3"), batches.get(1));
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.hawkular.listener.cache.BackfillCacheManager.CacheKey;
+import org.junit.Test;
+
+public class BackfillRegistryTest {
+
+    private static final long SUPPRESSION_MS = 60000L;
+    private static final long MAX_IN_FLIGHT_MS = 600000L;
+
+    private static final CacheKey KEY = new CacheKey("hawkular", BackfillCacheManager.FEED_PREFIX + "feed-1");
+
+    private final BackfillRegistry registry = new BackfillRegistry(SUPPRESSION_MS, MAX_IN_FLIGHT_MS);
+
+    @Test
+    public void testSingleFlight() {
+        long now = System.currentTimeMillis();
+        assertTrue(registry.start(KEY, now));
+        assertFalse(registry.start(KEY, now + 1000L));
+        assertEquals(1, registry.getInFlight());
+        assertEquals(1L, registry.getDeduplicated());
+
+        registry.finish(KEY, now, true);
+        assertEquals(0, registry.getInFlight());
+        assertTrue(registry.start(KEY, now + 2000L));
+    }
+
+    @Test
+    public void testHungBackfillIsAbandoned() {
+        long now = System.currentTimeMillis();
+        assertTrue(registry.start(KEY, now));
+        assertFalse(registry.start(KEY, now + MAX_IN_FLIGHT_MS));
+        long restart = now + MAX_IN_FLIGHT_MS + 1L;
+        assertTrue(registry.start(KEY, restart));
+        assertEquals(1L, registry.getAbandoned());
+
+        // the late completion of the abandoned backfill does not end its replacement
+        registry.finish(KEY, now, true);
+        assertEquals(1, registry.getInFlight());
+        assertFalse(registry.start(KEY, restart + 1000L));
+
+        registry.finish(KEY, restart, true);
+        assertEquals(0, registry.getInFlight());
+    }
+
+    @Test
+    public void testSuppressesForcedBackfillOfADownFeed() {
+        long backfillTime = System.currentTimeMillis();
+        registry.start(KEY, backfillTime);
+        registry.finish(KEY, backfillTime, true);
+
+        assertTrue(registry.suppress(KEY, backfillTime - 30000L));
+        assertEquals(1L, registry.getSuppressed());
+        // it pinged since
+        assertFalse(registry.suppress(KEY, backfillTime + 1L));
+    }
+
+    @Test
+    public void testFailedBackfillIsNotSuppressed() {
+        long backfillTime = System.currentTimeMillis();
+        registry.start(KEY, backfillTime);
+        registry.finish(KEY, backfillTime, false);
+        assertFalse(registry.suppress(KEY, 0L));
+    }
+
+    @Test
+    public void testSuppressionExpires() {
+        long backfillTime = System.currentTimeMillis() - SUPPRESSION_MS - 1000L;
+        registry.start(KEY, backfillTime);
+        registry.finish(KEY, backfillTime, true);
+        assertFalse(registry.suppress(KEY, 0L));
+    }
+
+    @Test
+    public void testPrune() {
+        CacheKey hung = new CacheKey("hawkular", BackfillCacheManager.FEED_PREFIX + "feed-2");
+        long now = System.currentTimeMillis();
+        registry.start(KEY, now);
+        registry.finish(KEY, now, true);
+        registry.start(hung, now);
+
+        registry.prune(now + 1000L);
+        assertEquals(1, registry.getInFlight());
+        assertTrue(registry.suppress(KEY, 0L));
+
+        registry.prune(now + MAX_IN_FLIGHT_MS + 1L);
+        assertEquals(0, registry.getInFlight());
+        assertFalse(registry.suppress(KEY, 0L));
+    }
+}
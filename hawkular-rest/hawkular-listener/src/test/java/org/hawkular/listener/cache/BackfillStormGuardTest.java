@@ -0,0 +1,135 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class BackfillStormGuardTest {
+
+    private static final double THRESHOLD = 0.2;
+    private static final int MIN_FEEDS = 10;
+    private static final int MONITORED_FEEDS = 100;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r,
+            "storm-timer"));
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final List<String> backfilled = new CopyOnWriteArrayList<>();
+
+    @After
+    public void after() {
+        timer.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    private BackfillStormGuard<String> guard(Predicate<String> stillDue, long windowMs, long maxQuietPeriodMs,
+            long graceMs) {
+        // a due feed is re-armed at once, the number of monitored feeds does not move
+        return new BackfillStormGuard<>(timer, executor, () -> MONITORED_FEEDS, stillDue, backfilled::add,
+                THRESHOLD, MIN_FEEDS, windowMs, () -> maxQuietPeriodMs, graceMs, 1000);
+    }
+
+    @Test
+    public void testFewDueFeedsAreBackfilledAtOnce() {
+        BackfillStormGuard<String> guard = guard(k -> true, 60000L, 0L, 60000L);
+        for (int i = 0; i < MIN_FEEDS - 1; ++i) {
+            guard.due("feed-" + i);
+        }
+        assertFalse(guard.isStorm());
+        assertEquals(MIN_FEEDS - 1, backfilled.size());
+        assertEquals(0, guard.size());
+    }
+
+    @Test
+    public void testStormOnTheShareOfTheFeedsMonitoredWhenTheWindowStarted() {
+        BackfillStormGuard<String> guard = guard(k -> true, 60000L, 0L, 60000L);
+        int stormAt = (int) (THRESHOLD * (MONITORED_FEEDS + 1)) + 1;
+        for (int i = 0; i < stormAt - 1; ++i) {
+            guard.due("feed-" + i);
+        }
+        assertFalse(guard.isStorm());
+
+        guard.due("feed-" + stormAt);
+        assertTrue(guard.isStorm());
+        assertEquals(stormAt - 1, backfilled.size());
+        assertEquals(1, guard.size());
+    }
+
+    @Test
+    public void testWindowIsAtLeastTheMaxQuietPeriod() throws Exception {
+        // due feeds spread over more than the min window
+        BackfillStormGuard<String> minWindow = guard(k -> true, 1L, 0L, 60000L);
+        BackfillStormGuard<String> maxQuietWindow = guard(k -> true, 1L, 60000L, 60000L);
+        for (int i = 0; i < 2 * MIN_FEEDS + 2 * THRESHOLD * MONITORED_FEEDS; ++i) {
+            minWindow.due("feed-" + i);
+            maxQuietWindow.due("feed-" + i);
+            Thread.sleep(3L);
+        }
+        assertFalse(minWindow.isStorm());
+        assertTrue(maxQuietWindow.isStorm());
+    }
+
+    @Test
+    public void testHeldFeedsAreRecheckedOffTheTimer() throws Exception {
+        Set<String> recheckThreads = ConcurrentHashMap.newKeySet();
+        // the even feeds resumed pinging during the grace period. Of the 60 feeds 20 are backfilled before the
+        // storm, the 40 held are checked at the end of the grace period and the 20 dead ones again on release.
+        CountDownLatch rechecked = new CountDownLatch(40 + 20);
+        BackfillStormGuard<String> guard = guard(k -> {
+            recheckThreads.add(Thread.currentThread().getName());
+            rechecked.countDown();
+            return 1 == Integer.parseInt(k.substring(5)) % 2;
+        }, 60000L, 0L, 50L);
+
+        for (int i = 0; i < 60; ++i) {
+            guard.due("feed-" + i);
+        }
+        assertTrue(guard.isStorm());
+        int before = backfilled.size();
+
+        int held = 60 - before;
+        assertTrue(rechecked.await(10L, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + 10000L;
+        while (0 != guard.size() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        executor.submit(() -> { }).get();
+
+        assertFalse(guard.isStorm());
+        assertFalse(recheckThreads.toString(), recheckThreads.contains("storm-timer"));
+        List<String> released = backfilled.subList(before, backfilled.size());
+        assertEquals(held / 2, released.size());
+        for (String key : released) {
+            assertEquals(key, 1, Integer.parseInt(key.substring(5)) % 2);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hawkular.metrics.model.AvailabilityType;
+import org.hawkular.metrics.model.DataPoint;
+import org.hawkular.metrics.model.Metric;
+import org.hawkular.metrics.model.MetricId;
+import org.hawkular.metrics.model.MetricType;
+import org.junit.Test;
+
+import rx.Observable;
+import rx.Subscription;
+import rx.observers.TestSubscriber;
+import rx.subjects.PublishSubject;
+
+public class BackfillWriterTest {
+
+    // writes are held until completed by the test
+    private final List<PublishSubject<Void>> writes = new ArrayList<>();
+    private final List<Integer> batchSizes = new ArrayList<>();
+
+    // no rate limit, the timer is not used
+    private final BackfillWriter writer = new BackfillWriter(metrics -> {
+        PublishSubject<Void> write = PublishSubject.create();
+        writes.add(write);
+        batchSizes.add(metrics.size());
+        return write;
+    }, null, 10, 1, 0.0);
+
+    private static Observable<Metric<AvailabilityType>> metrics(int count, AtomicInteger emitted) {
+        return Observable.range(0, count)
+                .doOnNext(i -> emitted.incrementAndGet())
+                .map(i -> new Metric<>(new MetricId<>("hawkular", MetricType.AVAILABILITY, "avail-" + i),
+                        Collections.singletonList(new DataPoint<>(1000L, AvailabilityType.DOWN))));
+    }
+
+    @Test
+    public void testBatchesAreWrittenOneAtATime() {
+        TestSubscriber<Void> subscriber = new TestSubscriber<>();
+        writer.write(metrics(25, new AtomicInteger())).subscribe(subscriber);
+
+        for (int i = 0; i < 3; ++i) {
+            assertEquals(i + 1, writes.size());
+            assertEquals(1, writer.getInFlight());
+            subscriber.assertNotCompleted();
+            writes.get(i).onCompleted();
+        }
+        assertEquals(Arrays.asList(10, 10, 5), batchSizes);
+        assertEquals(0, writer.getInFlight());
+        subscriber.assertCompleted();
+        subscriber.assertNoErrors();
+    }
+
+    @Test
+    public void testMaxInFlightIsShared() {
+        TestSubscriber<Void> first = new TestSubscriber<>();
+        TestSubscriber<Void> second = new TestSubscriber<>();
+        writer.write(metrics(5, new AtomicInteger())).subscribe(first);
+        writer.write(metrics(5, new AtomicInteger())).subscribe(second);
+
+        assertEquals(1, writes.size());
+        assertEquals(1, writer.getQueueDepth());
+        writes.get(0).onCompleted();
+        first.assertCompleted();
+        assertEquals(2, writes.size());
+        writes.get(1).onCompleted();
+        second.assertCompleted();
+    }
+
+    @Test
+    public void testFailedBatchFailsTheBackfill() {
+        TestSubscriber<Void> subscriber = new TestSubscriber<>();
+        AtomicInteger emitted = new AtomicInteger();
+        writer.write(metrics(100, emitted)).subscribe(subscriber);
+
+        writes.get(0).onError(new RuntimeException("write failed"));
+        subscriber.assertError(RuntimeException.class);
+        assertEquals(1, writes.size());
+        assertEquals(0, writer.getInFlight());
+        assertTrue("" + emitted.get(), emitted.get() <= 20);
+    }
+
+    @Test
+    public void testUnsubscribeStopsThePulls() {
+        AtomicInteger emitted = new AtomicInteger();
+        Subscription subscription = writer.write(metrics(100, emitted)).subscribe();
+        assertEquals(1, writes.size());
+
+        subscription.unsubscribe();
+        writes.get(0).onCompleted();
+        assertEquals(1, writes.size());
+        assertEquals(0, writer.getInFlight());
+        assertTrue("" + emitted.get(), emitted.get() <= 20);
+    }
+
+    @Test
+    public void testQueuedBatchOfCancelledBackfillIsDropped() {
+        TestSubscriber<Void> first = new TestSubscriber<>();
+        writer.write(metrics(5, new AtomicInteger())).subscribe(first);
+        Subscription second = writer.write(metrics(5, new AtomicInteger())).subscribe();
+        assertEquals(1, writer.getQueueDepth());
+
+        second.unsubscribe();
+        writes.get(0).onCompleted();
+        first.assertCompleted();
+        assertEquals(1, writes.size());
+        assertEquals(0, writer.getQueueDepth());
+        assertEquals(0, writer.getInFlight());
+    }
+
+    @Test
+    public void testSynchronousWritesDoNotGrowTheStack() {
+        // the first write is held, the backfills queued behind it then complete synchronously one after the other
+        PublishSubject<Void> first = PublishSubject.create();
+        List<Integer> stackDepths = new ArrayList<>();
+        BackfillWriter syncWriter = new BackfillWriter(metrics -> {
+            if (stackDepths.isEmpty()) {
+                stackDepths.add(0);
+                return first;
+            }
+            stackDepths.add(Thread.currentThread().getStackTrace().length);
+            return Observable.empty();
+        }, null, 10, 1, 0.0);
+
+        List<TestSubscriber<Void>> subscribers = new ArrayList<>();
+        for (int i = 0; i < 500; ++i) {
+            TestSubscriber<Void> subscriber = new TestSubscriber<>();
+            subscribers.add(subscriber);
+            syncWriter.write(metrics(25, new AtomicInteger())).subscribe(subscriber);
+        }
+        assertEquals(499, syncWriter.getQueueDepth());
+        first.onCompleted();
+
+        subscribers.forEach(TestSubscriber::assertCompleted);
+        assertEquals(1500, stackDepths.size());
+        // each write was started by the same drain loop, not by the completion of the previous one
+        int maxDepth = Collections.max(stackDepths);
+        assertTrue(stackDepths.get(1) + " " + maxDepth, maxDepth < stackDepths.get(1) + 20);
+        assertEquals(0, syncWriter.getQueueDepth());
+        assertEquals(0, syncWriter.getInFlight());
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+
+import org.hawkular.listener.cache.BackfillCacheManager.CacheKey;
+import org.hawkular.listener.cache.BackfillCacheManager.CacheKeyExternalizer;
+import org.hawkular.listener.cache.BackfillCacheManager.CacheValue;
+import org.hawkular.listener.cache.BackfillCacheManager.CacheValueExternalizer;
+import org.infinispan.commons.marshall.AdvancedExternalizer;
+import org.infinispan.commons.marshall.StreamingMarshaller;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.infinispan.factories.KnownComponentNames;
+import org.infinispan.lifecycle.ModuleLifecycle;
+import org.infinispan.manager.DefaultCacheManager;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Marshals through the cache manager's marshaller, the bytes a replicated cache puts on the wire.
+ */
+public class CacheExternalizersTest {
+
+    private static final String FEED_ID = "0123456789abcdef0123456789abcdef0123";
+
+    private final DefaultCacheManager cacheManager = cacheManager(CacheExternalizersTest.class.getClassLoader());
+    private final StreamingMarshaller marshaller = marshaller(cacheManager);
+
+    @After
+    public void after() {
+        cacheManager.stop();
+    }
+
+    private static DefaultCacheManager cacheManager(ClassLoader classLoader) {
+        GlobalConfigurationBuilder global = new GlobalConfigurationBuilder();
+        global.classLoader(classLoader);
+        global.globalJmxStatistics().allowDuplicateDomains(true);
+        return new DefaultCacheManager(global.build(), new ConfigurationBuilder().build());
+    }
+
+    private static StreamingMarshaller marshaller(DefaultCacheManager cacheManager) {
+        // the global components start with the first cache
+        cacheManager.getCache();
+        return cacheManager.getGlobalComponentRegistry().getComponent(StreamingMarshaller.class,
+                KnownComponentNames.GLOBAL_MARSHALLER);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T roundTrip(T object) throws Exception {
+        return (T) marshaller.objectFromByteBuffer(marshaller.objectToByteBuffer(object));
+    }
+
+    @Test
+    public void testExternalizersAreRegistered() {
+        Map<Integer, AdvancedExternalizer<?>> externalizers = cacheManager.getCacheManagerConfiguration()
+                .serialization().advancedExternalizers();
+        assertTrue(externalizers.get(BackfillCacheManager.CACHE_KEY_EXTERNALIZER_ID)
+                instanceof CacheKeyExternalizer);
+        assertTrue(externalizers.get(BackfillCacheManager.CACHE_VALUE_EXTERNALIZER_ID)
+                instanceof CacheValueExternalizer);
+    }
+
+    @Test
+    public void testCacheKeyRoundTrip() throws Exception {
+        CacheKey[] keys = {
+                new CacheKey("hawkular", BackfillCacheManager.FEED_PREFIX + FEED_ID),
+                new CacheKey("tenant-1", BackfillCacheManager.FEED_PREFIX + FEED_ID),
+                new CacheKey("hawkular", "some-other-metric"),
+                new CacheKey("tenant-2", "some-other-metric"),
+                new CacheKey("*", BackfillCacheManager.FEED_PREFIX + "féed") };
+        for (CacheKey key : keys) {
+            CacheKey read = roundTrip(key);
+            assertEquals(key, read);
+            assertEquals(key.getTenantId(), read.getTenantId());
+            assertEquals(key.getMetricId(), read.getMetricId());
+        }
+    }
+
+    @Test
+    public void testCacheKeySize() throws Exception {
+        // flags, UTF length and feed id (no tenant, no prefix) behind 7 bytes of marshaller header and id
+        assertEquals(1 + 4 + 36 + 7, marshaller.objectToByteBuffer(
+                new CacheKey("hawkular", BackfillCacheManager.FEED_PREFIX + FEED_ID)).length);
+        assertEquals(1 + 4 + 8 + 4 + 36 + 7, marshaller.objectToByteBuffer(
+                new CacheKey("tenant-1", BackfillCacheManager.FEED_PREFIX + FEED_ID)).length);
+    }
+
+    @Test
+    public void testCacheValueRoundTrip() throws Exception {
+        CacheValue[] values = {
+                new CacheValue(1490000000000L, 0L),
+                new CacheValue(1490000000000L, 60000L),
+                new CacheValue(0L, 0L),
+                new CacheValue(1490000000000L, 60000L, new String[] { "hawkular", "tenant-1" }) };
+        for (CacheValue value : values) {
+            CacheValue read = roundTrip(value);
+            assertEquals(value, read);
+            assertArrayEquals(value.getTenants(), read.getTenants());
+        }
+    }
+
+    @Test
+    public void testCacheValueWithoutTenantsSharesTheEmptyArray() throws Exception {
+        CacheValue read = roundTrip(new CacheValue(1490000000000L, 60000L));
+        assertEquals(0, read.getTenants().length);
+        assertEquals(CacheValue.NO_TENANTS, read.getTenants());
+    }
+
+    @Test
+    public void testNegativeQuietPeriodIsWrittenAsNoTimer() throws Exception {
+        CacheValue read = roundTrip(new CacheValue(1490000000000L, -1L));
+        assertEquals(0L, read.getMaxQuietPeriodMs());
+        assertFalse(read.hasBackfillJob());
+    }
+
+    @Test
+    public void testCacheValueSize() throws Exception {
+        // 6 + 3 bytes of varints and a 0 tenant count behind 7 bytes of marshaller header and id
+        assertEquals(6 + 3 + 1 + 7, marshaller.objectToByteBuffer(new CacheValue(1490000000000L, 60000L)).length);
+    }
+
+    @Test
+    public void testSerializeWithFallback() throws Exception {
+        // a container that does not see the module lifecycle, like the server defined one
+        DefaultCacheManager unregistered = cacheManager(new ClassLoader(getClass().getClassLoader()) {
+            @Override
+            public Enumeration<URL> getResources(String name) throws IOException {
+                return name.endsWith(ModuleLifecycle.class.getName()) ? Collections.emptyEnumeration()
+                        : super.getResources(name);
+            }
+        });
+        try {
+            assertTrue(unregistered.getCacheManagerConfiguration().serialization().advancedExternalizers()
+                    .isEmpty());
+            StreamingMarshaller fallback = marshaller(unregistered);
+            CacheKey key = new CacheKey("hawkular", BackfillCacheManager.FEED_PREFIX + FEED_ID);
+            CacheValue value = new CacheValue(1490000000000L, 60000L);
+            byte[] keyBytes = fallback.objectToByteBuffer(key);
+            byte[] valueBytes = fallback.objectToByteBuffer(value);
+            assertEquals(key, fallback.objectFromByteBuffer(keyBytes));
+            assertEquals(value, fallback.objectFromByteBuffer(valueBytes));
+
+            // the class descriptors cost far more than the entries themselves
+            assertTrue(keyBytes.length > 4 * marshaller.objectToByteBuffer(key).length);
+            assertTrue(valueBytes.length > 4 * marshaller.objectToByteBuffer(value).length);
+        } finally {
+            unregistered.stop();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class FeedCloseDebouncerTest {
+
+    private static final long WINDOW_MS = 30000L;
+
+    // the ping period of each feed, added to the window
+    private final Map<String, Long> pingPeriods = new HashMap<>();
+    private final List<List<String>> expiredFeeds = new ArrayList<>();
+    private final List<List<Long>> expiredCloseTimes = new ArrayList<>();
+
+    private final FeedCloseDebouncer<String> debouncer = new FeedCloseDebouncer<>(
+            feedId -> WINDOW_MS + pingPeriods.getOrDefault(feedId, 0L), (feeds, closeTimes) -> {
+                expiredFeeds.add(feeds);
+                expiredCloseTimes.add(closeTimes);
+            });
+
+    @Test
+    public void testFeedsAreHandedOverTogetherOnceTheirWindowHasPassed() {
+        debouncer.closed("feed-1", 1000L);
+        debouncer.closed("feed-2", 2000L);
+        assertEquals(2, debouncer.size());
+
+        assertEquals(0, debouncer.sweep(1000L + WINDOW_MS - 1L));
+        assertTrue(expiredFeeds.isEmpty());
+
+        assertEquals(2, debouncer.sweep(2000L + WINDOW_MS));
+        assertEquals(1, expiredFeeds.size());
+        assertEquals(Arrays.asList("feed-1", "feed-2"), sorted(expiredFeeds.get(0)));
+        assertEquals(Arrays.asList(1000L, 2000L), sorted(expiredCloseTimes.get(0)));
+        assertEquals(0, debouncer.size());
+
+        // handed over once
+        assertEquals(0, debouncer.sweep(10L * WINDOW_MS));
+    }
+
+    @Test
+    public void testWindowIncludesThePingPeriodOfTheFeed() {
+        // an agent pinging every minute may not ping within the reconnect window alone
+        pingPeriods.put("feed-1", 60000L);
+        debouncer.closed("feed-1", 0L);
+        debouncer.closed("feed-2", 0L);
+
+        assertEquals(1, debouncer.sweep(WINDOW_MS));
+        assertEquals(Collections.singletonList("feed-2"), expiredFeeds.get(0));
+        assertEquals(0, debouncer.sweep(WINDOW_MS + 59999L));
+        assertEquals(1, debouncer.sweep(WINDOW_MS + 60000L));
+        assertEquals(Collections.singletonList("feed-1"), expiredFeeds.get(1));
+    }
+
+    @Test
+    public void testRepeatedCloseRestartsTheWindow() {
+        debouncer.closed("feed-1", 1000L);
+        debouncer.closed("feed-1", 5000L);
+        // an older close reported late does not shorten the window
+        debouncer.closed("feed-1", 3000L);
+        assertEquals(1, debouncer.size());
+
+        assertEquals(0, debouncer.sweep(1000L + WINDOW_MS));
+        assertEquals(1, debouncer.sweep(5000L + WINDOW_MS));
+        assertEquals(Collections.singletonList(5000L), expiredCloseTimes.get(0));
+    }
+
+    @Test
+    public void testCloseDuringTheSweepIsKept() {
+        AtomicReference<FeedCloseDebouncer<String>> holder = new AtomicReference<>();
+        List<String> handedOver = new ArrayList<>();
+        holder.set(new FeedCloseDebouncer<>(feedId -> WINDOW_MS, (feeds, closeTimes) -> {
+            handedOver.addAll(feeds);
+            // the feed closes again while its previous close is being processed
+            holder.get().closed("feed-1", 2L * WINDOW_MS);
+        }));
+
+        holder.get().closed("feed-1", 0L);
+        assertEquals(1, holder.get().sweep(WINDOW_MS));
+        assertEquals(1, holder.get().size());
+        assertEquals(1, holder.get().sweep(3L * WINDOW_MS));
+        assertEquals(Arrays.asList("feed-1", "feed-1"), handedOver);
+    }
+
+    private static <T extends Comparable<T>> List<T> sorted(List<T> list) {
+        List<T> result = new ArrayList<>(list);
+        Collections.sort(result);
+        return result;
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.hawkular.listener.cache.BackfillCacheManager.CacheKey;
+import org.junit.Test;
+
+import com.sun.management.ThreadMXBean;
+
+public class FeedKeyTableTest {
+
+    private static final String FEED = BackfillCacheManager.FEED_PREFIX + "feed-1";
+    private static final String ANY = BackfillCacheManager.FEED_LIVENESS_TENANT;
+    private static final String DEFAULT_TENANT = "hawkular";
+
+    private final FeedKeyTable table = new FeedKeyTable();
+
+    @Test
+    public void testInternReturnsTheCanonicalKey() {
+        CacheKey key = table.intern("t1", FEED);
+        assertEquals(new CacheKey("t1", FEED), key);
+        // a String built elsewhere finds the same instance
+        assertSame(key, table.intern(new String("t1"), BackfillCacheManager.FEED_PREFIX + "feed-" + 1));
+        assertSame(key, table.recordPing("t1", FEED, 1000L));
+        assertNotSame(key, table.intern("t2", FEED));
+        assertEquals(2, table.size());
+    }
+
+    @Test
+    public void testRecordPingKeepsTheLatest() {
+        CacheKey key = table.recordPing("t1", FEED, 2000L);
+        table.recordPing("t1", FEED, 1000L);
+        assertEquals(2000L, table.pendingPingTime(key));
+        table.recordPing("t1", FEED, 3000L);
+        assertEquals(3000L, table.pendingPingTime(key));
+        assertEquals(0L, table.pendingPingTime(new CacheKey("t2", FEED)));
+    }
+
+    @Test
+    public void testPingOfAKnownFeedDoesNotAllocate() {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        long threadId = Thread.currentThread().getId();
+
+        // the ownership check and record of the ping path, for feeds already in the table
+        MemberTable members = MemberTable.of(Arrays.asList("member-1", "member-2"), "member-1");
+        String[] feeds = new String[64];
+        for (int i = 0; i < feeds.length; ++i) {
+            feeds[i] = BackfillCacheManager.FEED_PREFIX + "feed-" + i;
+            table.intern(DEFAULT_TENANT, feeds[i]);
+        }
+        int pings = 1_000_000;
+        long owned = 0L;
+        for (int round = 0; round < 2; ++round) {
+            // the first round warms up, the bean's own allocation is measured by a call with nothing in between
+            long start = threads.getThreadAllocatedBytes(threadId);
+            long overhead = threads.getThreadAllocatedBytes(threadId) - start;
+            start = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < pings; ++i) {
+                String feed = feeds[i & (feeds.length - 1)];
+                if (members.isLocalOwner(feed)) {
+                    table.recordPing(DEFAULT_TENANT, feed, i);
+                    ++owned;
+                }
+            }
+            long allocated = threads.getThreadAllocatedBytes(threadId) - start - overhead;
+            if (1 == round) {
+                assertTrue(allocated + " bytes for " + pings + " pings", allocated < 1024);
+            }
+        }
+        assertTrue(owned > 0L);
+        assertEquals(feeds.length, table.size());
+    }
+
+    @Test
+    public void testPendingPingsStayPendingUntilCleared() {
+        CacheKey key1 = table.recordPing("t1", FEED, 1000L);
+        CacheKey key2 = table.recordPing("t2", FEED, 2000L);
+        table.intern("t3", FEED);
+
+        Map<CacheKey, Long> pending = table.pendingPings();
+        assertEquals(2, pending.size());
+        assertEquals(1000L, (long) pending.get(key1));
+        assertEquals(2000L, (long) pending.get(key2));
+        // still visible to the dead-feed checks until written
+        assertEquals(1000L, table.pendingPingTime(key1));
+        assertEquals(pending, table.pendingPings());
+
+        table.clearPendingPings(pending);
+        assertEquals(0L, table.pendingPingTime(key1));
+        assertEquals(0L, table.pendingPingTime(key2));
+        assertTrue(table.pendingPings().isEmpty());
+    }
+
+    @Test
+    public void testPingDuringTheWriteIsNotLost() {
+        CacheKey key1 = table.recordPing("t1", FEED, 1000L);
+        CacheKey key2 = table.recordPing("t2", FEED, 1000L);
+        Map<CacheKey, Long> pending = table.pendingPings();
+
+        // pinged again while the batch was being written
+        table.recordPing("t1", FEED, 1500L);
+        table.clearPendingPings(pending);
+
+        assertEquals(1500L, table.pendingPingTime(key1));
+        assertEquals(0L, table.pendingPingTime(key2));
+        assertEquals(1, table.pendingPings().size());
+    }
+
+    @Test
+    public void testKeysOfFeed() {
+        CacheKey key1 = table.intern("t1", FEED);
+        CacheKey key2 = table.intern("t2", FEED);
+        table.intern("t1", BackfillCacheManager.FEED_PREFIX + "feed-2");
+
+        assertEquals(new HashSet<>(Arrays.asList(key1, key2)), table.keysOfFeed("feed-1"));
+        assertEquals(1, table.keysOfFeed("feed-2").size());
+        assertTrue(table.keysOfFeed("feed-3").isEmpty());
+    }
+
+    @Test
+    public void testRemove() {
+        CacheKey key1 = table.recordPing("t1", FEED, 1000L);
+        CacheKey key2 = table.intern("t2", FEED);
+
+        table.remove(key1);
+        assertEquals(1, table.size());
+        assertEquals(0L, table.pendingPingTime(key1));
+        assertTrue(table.pendingPings().isEmpty());
+        assertEquals(1, table.keysOfFeed("feed-1").size());
+
+        table.remove(key2);
+        assertEquals(0, table.size());
+        assertTrue(table.keysOfFeed("feed-1").isEmpty());
+
+        // a new key once forgotten
+        assertNotSame(key1, table.intern("t1", FEED));
+    }
+
+    @Test
+    public void testTenantKeysExcludeTheLivenessKey() {
+        CacheKey key1 = table.intern("t1", FEED);
+        CacheKey key2 = table.intern("t2", FEED);
+        table.intern(ANY, FEED);
+
+        assertEquals(new HashSet<>(Arrays.asList(key1, key2)),
+                new HashSet<>(table.tenantKeys("feed-1", DEFAULT_TENANT)));
+    }
+
+    @Test
+    public void testTenantKeysDefaultToTheDefaultTenant() {
+        assertEquals(Collections.singletonList(new CacheKey(DEFAULT_TENANT, FEED)),
+                table.tenantKeys("feed-1", DEFAULT_TENANT));
+        // a feed known by its liveness key only, e.g. a member taking over the feed before any tenant is replicated
+        table.intern(ANY, FEED);
+        assertEquals(Collections.singletonList(new CacheKey(DEFAULT_TENANT, FEED)),
+                table.tenantKeys("feed-1", DEFAULT_TENANT));
+        // not interned
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void testLivenessKeys() {
+        CacheKey key1 = table.intern("t1", FEED);
+        CacheKey key2 = table.intern("t2", FEED);
+
+        // one key per tenant
+        assertEquals(new HashSet<>(Arrays.asList(key1, key2)),
+                new HashSet<>(table.livenessKeys("feed-1", false, DEFAULT_TENANT)));
+
+        // the single feed liveness key, interned
+        CacheKey liveness = table.livenessKeys("feed-1", true, DEFAULT_TENANT).iterator().next();
+        assertEquals(new CacheKey(ANY, FEED), liveness);
+        assertSame(liveness, table.intern(ANY, FEED));
+        assertEquals(1, table.livenessKeys("feed-1", true, DEFAULT_TENANT).size());
+        // and not a tenant key
+        assertEquals(new HashSet<>(Arrays.asList(key1, key2)),
+                new HashSet<>(table.livenessKeys("feed-1", false, DEFAULT_TENANT)));
+    }
+
+    @Test
+    public void testBackfillTargets() {
+        CacheKey key1 = table.intern("t1", FEED);
+        CacheKey key2 = table.intern("t2", FEED);
+        CacheKey liveness = table.intern(ANY, FEED);
+        CacheKey other = table.intern("t1", BackfillCacheManager.FEED_PREFIX + "feed-2");
+
+        // every tenant of the feed for its liveness key, only the feed's own tenants
+        assertEquals(new HashSet<>(Arrays.asList(key1, key2)),
+                new HashSet<>(table.backfillTargets(liveness, DEFAULT_TENANT)));
+        // a tenant key is its own target
+        assertEquals(Collections.singletonList(key1), table.backfillTargets(key1, DEFAULT_TENANT));
+        assertEquals(Collections.singletonList(other), table.backfillTargets(other, DEFAULT_TENANT));
+        // a liveness key whose tenants are not known here
+        assertEquals(Collections.singletonList(new CacheKey(DEFAULT_TENANT,
+                BackfillCacheManager.FEED_PREFIX + "feed-3")),
+                table.backfillTargets(new CacheKey(ANY, BackfillCacheManager.FEED_PREFIX + "feed-3"),
+                        DEFAULT_TENANT));
+    }
+
+    @Test
+    public void testMergeTenants() {
+        String[] none = new String[0];
+        assertSame(none, table.mergeTenants("feed-1", none));
+
+        table.intern(ANY, FEED);
+        table.intern("t2", FEED);
+        table.intern("t1", FEED);
+        // sorted, without the liveness marker
+        String[] merged = table.mergeTenants("feed-1", none);
+        assertArrayEquals(new String[] { "t1", "t2" }, merged);
+        // nothing new, the replicated array as is
+        assertSame(merged, table.mergeTenants("feed-1", merged));
+        // tenants replicated from another member are kept
+        assertArrayEquals(new String[] { "t0", "t1", "t2" }, table.mergeTenants("feed-1", new String[] { "t0" }));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hawkular.listener.cache.BackfillCacheManager.CacheKey;
+import org.hawkular.listener.cache.BackfillCacheManager.CacheValue;
+import org.infinispan.Cache;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+import org.junit.After;
+import org.junit.Test;
+
+public class InfinispanPingTableTest {
+
+    private final DefaultCacheManager cacheManager = new DefaultCacheManager(
+            new ConfigurationBuilder().build());
+    private final Cache<CacheKey, CacheValue> cache = cacheManager.getCache("backfill");
+    private final InfinispanPingTable table = new InfinispanPingTable(cache, null);
+
+    @After
+    public void after() {
+        cacheManager.stop();
+    }
+
+    private static CacheKey key(int i) {
+        return new CacheKey("hawkular", BackfillCacheManager.FEED_PREFIX + "feed-" + i);
+    }
+
+    // the update of a ping, as the backfill cache does it: only ever moves forward
+    private static CacheValue ping(CacheValue value, long pingTime) {
+        if (null == value) {
+            return new CacheValue(pingTime, 0L);
+        }
+        return pingTime <= value.getLastUpdateTime() ? null : new CacheValue(pingTime, value.getMaxQuietPeriodMs());
+    }
+
+    @Test
+    public void testUpdateAll() {
+        cache.put(key(1), new CacheValue(5000L, 60000L));
+        cache.put(key(2), new CacheValue(1000L, 60000L));
+        Set<CacheKey> keys = new HashSet<>();
+        for (int i = 1; i <= 3; ++i) {
+            keys.add(key(i));
+        }
+
+        Map<CacheKey, CacheValue> stored = table.updateAll(keys, (key, value) -> ping(value, 2000L));
+        // an older ping leaves the entry unchanged
+        assertFalse(stored.containsKey(key(1)));
+        assertEquals(new CacheValue(5000L, 60000L), cache.get(key(1)));
+        assertEquals(new CacheValue(2000L, 60000L), stored.get(key(2)));
+        assertEquals(new CacheValue(2000L, 60000L), cache.get(key(2)));
+        assertEquals(new CacheValue(2000L, 0L), stored.get(key(3)));
+        assertEquals(new CacheValue(2000L, 0L), cache.get(key(3)));
+        assertEquals(2, stored.size());
+    }
+
+    @Test
+    public void testUpdateAllDoesNotOverwriteAConcurrentUpdate() {
+        cache.put(key(1), new CacheValue(1000L, 60000L));
+        Set<CacheKey> keys = new HashSet<>();
+        keys.add(key(1));
+        keys.add(key(2));
+
+        // between the bulk read and the write another thread stores a later ping of feed-1, and ends the backfill
+        // job of feed-2
+        Set<CacheKey> evaluated = new HashSet<>();
+        AtomicInteger calls = new AtomicInteger();
+        Map<CacheKey, CacheValue> stored = table.updateAll(keys, (key, value) -> {
+            calls.incrementAndGet();
+            if (evaluated.add(key)) {
+                cache.put(key, key.equals(key(1)) ? new CacheValue(3000L, 60000L) : new CacheValue(2500L, 0L));
+            }
+            return ping(value, 2000L);
+        });
+
+        // re-evaluated against the concurrent values: feed-1 is left as is, feed-2 keeps its ended job
+        assertEquals(new CacheValue(3000L, 60000L), cache.get(key(1)));
+        assertNull(stored.get(key(1)));
+        assertEquals(new CacheValue(2500L, 0L), cache.get(key(2)));
+        assertNull(stored.get(key(2)));
+        assertEquals(4, calls.get());
+    }
+
+    @Test
+    public void testConcurrentUpdateAllNeverMovesBackwards() throws Exception {
+        // messages carrying pings of the same feeds, applied concurrently and out of order
+        int threads = 4;
+        int messages = 500;
+        Set<CacheKey> keys = new HashSet<>();
+        for (int i = 0; i < 10; ++i) {
+            keys.add(key(i));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; ++t) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int m = 0; m < messages; ++m) {
+                        long pingTime = 1L + m * threads + (threads - 1 - thread);
+                        table.updateAll(keys, (key, value) -> ping(value, pingTime));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (CacheKey key : keys) {
+            assertEquals((long) messages * threads, cache.get(key).getLastUpdateTime());
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MemberTableTest {
+
+    private static final int IDS = 10000;
+
+    private static List<String> ids() {
+        List<String> ids = new ArrayList<>(IDS);
+        for (int i = 0; i < IDS; ++i) {
+            ids.add(BackfillCacheManager.FEED_PREFIX + "feed-" + i);
+        }
+        // hashCode() is Integer.MIN_VALUE
+        ids.add("polygenelubricants");
+        return ids;
+    }
+
+    private static List<MemberTable> tablesOf(List<String> members) {
+        List<MemberTable> tables = new ArrayList<>();
+        for (String member : members) {
+            tables.add(MemberTable.of(members, member));
+        }
+        return tables;
+    }
+
+    @Test
+    public void testStandaloneOwnsEverything() {
+        for (String id : ids()) {
+            assertTrue(MemberTable.STANDALONE.isLocalOwner(id));
+        }
+    }
+
+    @Test
+    public void testEveryIdHasExactlyOneOwner() {
+        List<MemberTable> tables = tablesOf(Arrays.asList("node-a", "node-b", "node-c"));
+        int negativeHashes = 0;
+        for (String id : ids()) {
+            if (id.hashCode() < 0) {
+                ++negativeHashes;
+            }
+            int owners = 0;
+            for (MemberTable table : tables) {
+                if (table.isLocalOwner(id)) {
+                    ++owners;
+                }
+            }
+            assertEquals(id, 1, owners);
+        }
+        assertTrue(negativeHashes > 0);
+    }
+
+    @Test
+    public void testOwnershipDoesNotDependOnMemberOrder() {
+        MemberTable table = MemberTable.of(Arrays.asList("node-b", "node-c", "node-a"), "node-a");
+        MemberTable sorted = MemberTable.of(Arrays.asList("node-a", "node-b", "node-c"), "node-a");
+        for (String id : ids()) {
+            assertEquals(id, sorted.getMember(sorted.ownerOf(id)), table.getMember(table.ownerOf(id)));
+        }
+    }
+
+    @Test
+    public void testOwnershipIsBalanced() {
+        MemberTable table = MemberTable.of(Arrays.asList("node-a", "node-b", "node-c", "node-d"), "node-a");
+        int[] owned = new int[table.size()];
+        for (String id : ids()) {
+            ++owned[table.ownerOf(id)];
+        }
+        for (int count : owned) {
+            assertEquals(IDS / 4.0, count, IDS * 0.05);
+        }
+    }
+
+    @Test
+    public void testJoiningMemberTakesAboutOneNth() {
+        MemberTable before = MemberTable.of(Arrays.asList("node-a", "node-b", "node-c", "node-d"), "node-a");
+        MemberTable after = MemberTable.of(Arrays.asList("node-a", "node-b", "node-c", "node-d", "node-e"),
+                "node-a");
+        int moved = 0;
+        for (String id : ids()) {
+            String oldOwner = before.getMember(before.ownerOf(id));
+            String newOwner = after.getMember(after.ownerOf(id));
+            if (!oldOwner.equals(newOwner)) {
+                // only the ids won by the new member move
+                assertEquals(id, "node-e", newOwner);
+                ++moved;
+            }
+        }
+        assertEquals(IDS / 5.0, moved, IDS * 0.05);
+    }
+
+    @Test
+    public void testLeavingMemberOnlyMovesItsIds() {
+        MemberTable before = MemberTable.of(Arrays.asList("node-a", "node-b", "node-c"), "node-a");
+        MemberTable after = MemberTable.of(Arrays.asList("node-a", "node-c"), "node-a");
+        for (String id : ids()) {
+            String oldOwner = before.getMember(before.ownerOf(id));
+            if (!"node-b".equals(oldOwner)) {
+                assertEquals(id, oldOwner, after.getMember(after.ownerOf(id)));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLocalMemberMustBeAMember() {
+        MemberTable.of(Arrays.asList("node-a", "node-b"), "node-c");
+    }
+}
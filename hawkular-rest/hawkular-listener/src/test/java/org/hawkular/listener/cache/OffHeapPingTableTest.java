@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.hawkular.listener.cache.BackfillCacheManager.CacheKey;
+import org.hawkular.listener.cache.BackfillCacheManager.CacheValue;
+import org.junit.Test;
+
+public class OffHeapPingTableTest {
+
+    private static CacheKey key(int i) {
+        return new CacheKey("tenant-" + (i % 3), BackfillCacheManager.FEED_PREFIX + "feed-" + i);
+    }
+
+    @Test
+    public void testGetAndUpdate() {
+        OffHeapPingTable table = new OffHeapPingTable(16);
+        assertNull(table.get(key(1)));
+        assertEquals(0L, table.lastUpdateTime(key(1)));
+
+        assertEquals(new CacheValue(1000L, 0L), table.update(key(1), v -> null == v ? new CacheValue(1000L, 0L) : v));
+        assertEquals(new CacheValue(1000L, 0L), table.get(key(1)));
+        assertEquals(1000L, table.lastUpdateTime(key(1)));
+
+        table.update(key(1), v -> v.withMaxQuietPeriodMs(60000L));
+        assertEquals(new CacheValue(1000L, 60000L), table.get(key(1)));
+
+        // returning null leaves the entry unchanged, and stores nothing for an absent key
+        assertNull(table.update(key(1), v -> null));
+        assertNull(table.update(key(2), v -> null));
+        assertEquals(new CacheValue(1000L, 60000L), table.get(key(1)));
+        assertNull(table.get(key(2)));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void testGrowth() {
+        OffHeapPingTable table = new OffHeapPingTable(1);
+        int count = 10000;
+        Map<CacheKey, CacheValue> values = new HashMap<>();
+        for (int i = 0; i < count; ++i) {
+            values.put(key(i), new CacheValue(1000L + i, i));
+        }
+        table.putAll(values);
+        assertEquals(count, table.size());
+
+        for (int i = 0; i < count; ++i) {
+            assertEquals(new CacheValue(1000L + i, i), table.get(key(i)));
+            assertEquals(1000L + i, table.lastUpdateTime(key(i)));
+        }
+        assertNull(table.get(key(count)));
+    }
+
+    @Test
+    public void testGetAll() {
+        OffHeapPingTable table = new OffHeapPingTable(16);
+        Map<CacheKey, CacheValue> values = new HashMap<>();
+        for (int i = 0; i < 100; ++i) {
+            values.put(key(i), new CacheValue(1000L + i, 0L));
+        }
+        table.putAll(values);
+
+        Set<CacheKey> keys = new HashSet<>();
+        for (int i = 50; i < 150; ++i) {
+            keys.add(key(i));
+        }
+        Map<CacheKey, CacheValue> result = table.getAll(keys);
+        assertEquals(50, result.size());
+        for (Map.Entry<CacheKey, CacheValue> e : result.entrySet()) {
+            assertEquals(values.get(e.getKey()), e.getValue());
+        }
+        assertTrue(table.getAll(new HashSet<>()).isEmpty());
+    }
+
+    @Test
+    public void testPutAllOverwrites() {
+        OffHeapPingTable table = new OffHeapPingTable(16);
+        Map<CacheKey, CacheValue> values = new HashMap<>();
+        values.put(key(1), new CacheValue(1000L, 0L));
+        table.putAll(values);
+        values.put(key(1), new CacheValue(2000L, 5000L));
+        table.putAll(values);
+        assertEquals(new CacheValue(2000L, 5000L), table.get(key(1)));
+        assertEquals(1, table.size());
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.hawkular.listener.cache.BackfillCacheManager.CacheKey;
+import org.junit.Test;
+
+public class PhiAccrualDetectorTest {
+
+    private static final CacheKey KEY = new CacheKey("hawkular", BackfillCacheManager.FEED_PREFIX + "feed-1");
+
+    // the BackfillCacheManager defaults
+    private final PhiAccrualDetector detector = new PhiAccrualDetector(8.0, 32, 1000L, 5000L, 125000L, 1000L);
+
+    private long ping(long start, long periodMs, int count) {
+        long time = start;
+        for (int i = 0; i < count; ++i) {
+            detector.recordArrival(KEY, time);
+            time += periodMs;
+        }
+        return time - periodMs;
+    }
+
+    @Test
+    public void testSolveY() {
+        for (double threshold : new double[] { 1.0, 3.0, 8.0, 12.0, 16.0 }) {
+            double y = PhiAccrualDetector.solveY(threshold);
+            assertEquals(threshold, PhiAccrualDetector.phi(y), 1e-6);
+        }
+        assertEquals(5.22, PhiAccrualDetector.solveY(8.0), 0.01);
+    }
+
+    @Test
+    public void testPhiIsIncreasing() {
+        double previous = PhiAccrualDetector.phi(-4.0);
+        for (double y = -3.9; y < 20.0; y += 0.1) {
+            double phi = PhiAccrualDetector.phi(y);
+            assertTrue("at " + y, phi > previous);
+            assertTrue("at " + y, !Double.isInfinite(phi) && !Double.isNaN(phi));
+            previous = phi;
+        }
+        // the mean is a coin toss
+        assertEquals(-Math.log10(0.5), PhiAccrualDetector.phi(0.0), 1e-9);
+    }
+
+    @Test
+    public void testNoEstimateBelowMinSamples() {
+        // n arrivals give n - 1 intervals
+        ping(1000000L, 30000L, PhiAccrualDetector.MIN_SAMPLES);
+        assertEquals(0L, detector.maxQuietPeriodMs(KEY));
+        assertEquals(0.0, detector.phi(KEY, 2000000L), 0.0);
+        detector.recordArrival(KEY, 1000000L + 30000L * PhiAccrualDetector.MIN_SAMPLES);
+        assertTrue(detector.maxQuietPeriodMs(KEY) > 0L);
+    }
+
+    @Test
+    public void testRegularPings() {
+        ping(1000000L, 30000L, 20);
+        // mean + y* x the min std dev + the acceptable pause
+        assertEquals(40220L, detector.maxQuietPeriodMs(KEY), 10L);
+    }
+
+    @Test
+    public void testJitterWidensTheDeadline() {
+        Random random = new Random(42L);
+        long time = 1000000L;
+        for (int i = 0; i < 32; ++i) {
+            detector.recordArrival(KEY, time);
+            time += 25000L + random.nextInt(10000);
+        }
+        long jittery = detector.maxQuietPeriodMs(KEY);
+        assertTrue("" + jittery, jittery > 40220L && jittery < 60000L);
+    }
+
+    @Test
+    public void testPhiGrowsWithQuietTime() {
+        long last = ping(1000000L, 30000L, 20);
+        long deadline = detector.maxQuietPeriodMs(KEY);
+
+        double previous = detector.phi(KEY, last);
+        for (long elapsed = 1000L; elapsed <= 60000L; elapsed += 1000L) {
+            double phi = detector.phi(KEY, last + elapsed);
+            assertTrue("at " + elapsed, phi >= previous);
+            previous = phi;
+        }
+        assertTrue(detector.phi(KEY, last + 30000L) < 1.0);
+        // the deadline is where phi crosses the threshold
+        assertEquals(8.0, detector.phi(KEY, last + deadline), 0.1);
+    }
+
+    @Test
+    public void testLongSilenceIsNotSampled() {
+        long last = ping(1000000L, 30000L, 20);
+        long deadline = detector.maxQuietPeriodMs(KEY);
+        // back after a restart
+        detector.recordArrival(KEY, last + 600000L);
+        assertEquals(deadline, detector.maxQuietPeriodMs(KEY));
+    }
+
+    @Test
+    public void testDuplicateArrivalsAreIgnored() {
+        long last = ping(1000000L, 30000L, 20);
+        long deadline = detector.maxQuietPeriodMs(KEY);
+        detector.recordArrival(KEY, last + 500L);
+        detector.recordArrival(KEY, last);
+        assertEquals(deadline, detector.maxQuietPeriodMs(KEY));
+    }
+
+    @Test
+    public void testRemove() {
+        ping(1000000L, 30000L, 20);
+        assertEquals(1, detector.size());
+        detector.remove(KEY);
+        assertEquals(0, detector.size());
+        assertEquals(0L, detector.maxQuietPeriodMs(KEY));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWindowSmallerThanMinSamples() {
+        new PhiAccrualDetector(8.0, PhiAccrualDetector.MIN_SAMPLES - 1, 1000L, 5000L, 125000L, 1000L);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TimingWheelTest {
+
+    private final Map<String, Long> expired = new HashMap<>();
+    private final List<String> order = new ArrayList<>();
+    private long now;
+
+    private final TimingWheel<String> wheel = new TimingWheel<>(10L, 0L, (key, deadline) -> {
+        assertTrue("fired before its deadline: " + key, now >= deadline);
+        expired.put(key, now);
+        order.add(key);
+    });
+
+    private int advanceTo(long time) {
+        now = time;
+        return wheel.advance(time);
+    }
+
+    @Test
+    public void testFiresOnTheFirstTickAfterTheDeadline() {
+        wheel.schedule("a", 25L);
+        assertEquals(0, advanceTo(20L));
+        assertTrue(wheel.isScheduled("a"));
+        assertEquals(1, advanceTo(30L));
+        assertEquals(30L, (long) expired.get("a"));
+        assertFalse(wheel.isScheduled("a"));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testPastDeadlineFiresOnTheNextTick() {
+        advanceTo(1000L);
+        wheel.schedule("a", 500L);
+        assertEquals(1, advanceTo(1010L));
+    }
+
+    @Test
+    public void testCascadeFromEveryLevel() {
+        long tickMs = wheel.getTickMs();
+        long[] deadlines = new long[TimingWheel.LEVELS];
+        for (int level = 0; level < TimingWheel.LEVELS; ++level) {
+            // just past the range of the lower level, so it is parked on this level and cascaded down
+            deadlines[level] = ((1L << (TimingWheel.WHEEL_BITS * level)) + 3) * tickMs;
+            wheel.schedule("level" + level, deadlines[level]);
+        }
+        for (int level = 0; level < TimingWheel.LEVELS; ++level) {
+            String key = "level" + level;
+            advanceTo(deadlines[level] - tickMs);
+            assertFalse("fired early: " + key, expired.containsKey(key));
+            advanceTo(deadlines[level]);
+            assertEquals(key, deadlines[level], (long) expired.get(key));
+        }
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testRandomDeadlinesFireInOrderOnTime() {
+        Random random = new Random(42L);
+        long tickMs = wheel.getTickMs();
+        long range = (1L << (TimingWheel.WHEEL_BITS * 3)) * tickMs;
+        Map<String, Long> deadlines = new HashMap<>();
+        for (int i = 0; i < 2000; ++i) {
+            long deadline = (long) (random.nextDouble() * range);
+            deadlines.put("k" + i, deadline);
+            wheel.schedule("k" + i, deadline);
+        }
+        // advance by irregular steps, several ticks at a time
+        for (long time = 0L; time <= range + tickMs; time += tickMs * (1 + random.nextInt(50))) {
+            advanceTo(time);
+        }
+        advanceTo(range + tickMs);
+
+        assertEquals(deadlines.size(), expired.size());
+        for (Map.Entry<String, Long> e : deadlines.entrySet()) {
+            long firedAt = expired.get(e.getKey());
+            assertTrue(e.getKey(), firedAt >= e.getValue());
+        }
+        for (int i = 1; i < order.size(); ++i) {
+            long previousTick = (deadlines.get(order.get(i - 1)) + tickMs - 1) / tickMs;
+            long tick = (deadlines.get(order.get(i)) + tickMs - 1) / tickMs;
+            assertTrue("out of order at " + i, previousTick <= tick);
+        }
+    }
+
+    @Test
+    public void testOutOfRangeDeadlineIsParkedUntilInRange() {
+        long tickMs = wheel.getTickMs();
+        long range = (1L << (TimingWheel.WHEEL_BITS * TimingWheel.LEVELS)) * tickMs;
+        long deadline = 2 * range + 5 * tickMs;
+        wheel.schedule("far", deadline);
+
+        assertEquals(0, advanceTo(range));
+        assertEquals(0, advanceTo(2 * range));
+        assertEquals(0, advanceTo(deadline - tickMs));
+        assertTrue(wheel.isScheduled("far"));
+        assertEquals(1, advanceTo(deadline));
+        assertEquals(deadline, (long) expired.get("far"));
+    }
+
+    @Test
+    public void testRescheduleReplacesTheDeadline() {
+        wheel.schedule("a", 100L);
+        wheel.schedule("a", 5000L);
+        assertEquals(1, wheel.size());
+        assertEquals(0, advanceTo(4990L));
+        assertEquals(1, advanceTo(5000L));
+
+        wheel.schedule("b", 10000L);
+        wheel.schedule("b", 6000L);
+        assertEquals(1, advanceTo(6000L));
+        assertEquals(6000L, (long) expired.get("b"));
+    }
+
+    @Test
+    public void testCancel() {
+        wheel.schedule("a", 100L);
+        assertTrue(wheel.cancel("a"));
+        assertFalse(wheel.cancel("a"));
+        assertEquals(0, advanceTo(1000L));
+        assertTrue(expired.isEmpty());
+    }
+
+    @Test
+    public void testHandlerMayReschedule() {
+        List<Long> fired = new ArrayList<>();
+        List<TimingWheel<String>> holder = new ArrayList<>();
+        TimingWheel<String> periodic = new TimingWheel<>(10L, 0L, (key, deadline) -> {
+            fired.add(deadline);
+            holder.get(0).schedule(key, deadline + 100L);
+        });
+        holder.add(periodic);
+
+        periodic.schedule("a", 100L);
+        assertEquals(1, periodic.advance(100L));
+        assertTrue(periodic.isScheduled("a"));
+        assertEquals(1, periodic.advance(200L));
+        assertEquals(2, fired.size());
+        assertEquals(200L, (long) fired.get(1));
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.listener.cache;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class VarIntsTest {
+
+    private static byte[] write(long value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        VarInts.writeVarLong(new DataOutputStream(bytes), value);
+        return bytes.toByteArray();
+    }
+
+    private static long read(byte[] bytes) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+        long value = VarInts.readVarLong(input);
+        assertEquals("trailing bytes", 0, input.available());
+        return value;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        long[] values = { 0L, 1L, 127L, 128L, 300L, 16383L, 16384L, 30000L, 1490000000000L, Integer.MAX_VALUE,
+                Long.MAX_VALUE, -1L, Long.MIN_VALUE };
+        for (long value : values) {
+            assertEquals(value, read(write(value)));
+        }
+    }
+
+    @Test
+    public void testEncodedSize() throws IOException {
+        assertEquals(1, write(0L).length);
+        assertEquals(1, write(127L).length);
+        assertEquals(2, write(128L).length);
+        // a typical quiet period
+        assertEquals(3, write(60000L).length);
+        // an epoch millisecond timestamp
+        assertEquals(6, write(1490000000000L).length);
+        assertEquals(9, write(Long.MAX_VALUE).length);
+        assertEquals(10, write(-1L).length);
+    }
+
+    @Test(expected = IOException.class)
+    public void testMalformed() throws IOException {
+        byte[] bytes = new byte[11];
+        Arrays.fill(bytes, (byte) 0x80);
+        read(bytes);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncated() throws IOException {
+        read(new byte[] { (byte) 0x80, (byte) 0x80 });
+    }
+}